@@ -0,0 +1,42 @@
+package com.lyokone.location;
+
+import java.util.Random;
+
+/**
+ * Synthetic tracks for the benchmarks.
+ */
+final class Fixes {
+
+    private Fixes() {
+    }
+
+    /**
+     * Returns a packed payload of a noisy walk at 1 Hz around the given origin,
+     * see {@link LocationPayload}.
+     */
+    static double[] walk(int count, double latitude, double longitude, long seed) {
+        Random random = new Random(seed);
+        double[] fixes = new double[count * LocationPayload.STRIDE];
+        double heading = random.nextDouble() * 360;
+        for (int i = 0; i < count; i++) {
+            heading += random.nextGaussian() * 10;
+            double speed = 1.4 + random.nextGaussian() * 0.2;
+            latitude += speed * Math.cos(Math.toRadians(heading)) / 111195;
+            longitude += speed * Math.sin(Math.toRadians(heading)) / (111195 * Math.cos(Math.toRadians(latitude)));
+
+            int offset = i * LocationPayload.STRIDE;
+            fixes[offset + LocationPayload.LATITUDE] = latitude + random.nextGaussian() * 3e-5;
+            fixes[offset + LocationPayload.LONGITUDE] = longitude + random.nextGaussian() * 3e-5;
+            fixes[offset + LocationPayload.ACCURACY] = 4 + random.nextDouble() * 8;
+            fixes[offset + LocationPayload.ALTITUDE] = 120 + random.nextGaussian();
+            fixes[offset + LocationPayload.SPEED] = speed;
+            fixes[offset + LocationPayload.SPEED_ACCURACY] = 0.5;
+            fixes[offset + LocationPayload.HEADING] = (heading % 360 + 360) % 360;
+            fixes[offset + LocationPayload.TIME] = 1577836800000.0 + i * 1000;
+            fixes[offset + LocationPayload.SATELLITES] = 12;
+            fixes[offset + LocationPayload.HDOP] = 0.9;
+            fixes[offset + LocationPayload.VDOP] = 1.3;
+        }
+        return fixes;
+    }
+}
@@ -0,0 +1,68 @@
+package com.lyokone.location;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per fix of evaluating a large set of geofences spread over a city,
+ * while walking through it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeofenceBenchmark {
+
+    private static final double LATITUDE = 48.8566;
+    private static final double LONGITUDE = 2.3522;
+    private static final int TRACK_SIZE = 4096;
+
+    @Param({ "10000", "50000" })
+    public int fenceCount;
+
+    private final GeofenceEngine engine = new GeofenceEngine();
+    private double[] track;
+    private int index;
+    private int transitions;
+    private final GeofenceEngine.Listener listener = (id, transition, latitude, longitude, time) -> transitions++;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(3);
+        for (int i = 0; i < fenceCount; i++) {
+            double latitude = LATITUDE + (random.nextDouble() - 0.5) * 0.2;
+            double longitude = LONGITUDE + (random.nextDouble() - 0.5) * 0.3;
+            if (i % 10 == 0) {
+                double size = 0.0005 + random.nextDouble() * 0.001;
+                engine.addPolygon("fence" + i, new double[] { latitude, longitude, latitude + size, longitude,
+                        latitude + size, longitude + size, latitude, longitude + size }, 0);
+            } else {
+                engine.addCircle("fence" + i, latitude, longitude, 20 + random.nextDouble() * 200, 60000);
+            }
+        }
+        track = Fixes.walk(TRACK_SIZE, LATITUDE, LONGITUDE, 4);
+    }
+
+    @Benchmark
+    public int evaluate() {
+        int offset = index * LocationPayload.STRIDE;
+        index = (index + 1) % TRACK_SIZE;
+        engine.evaluate(track[offset + LocationPayload.LATITUDE], track[offset + LocationPayload.LONGITUDE],
+                track[offset + LocationPayload.TIME], listener);
+        return transitions;
+    }
+}
@@ -0,0 +1,60 @@
+package com.lyokone.location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of building the payload of a batch of fixes in each format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @Param({ "1", "100" })
+    public int batchSize;
+
+    private double[] fixes;
+    private final DeltaEncoder encoder = new DeltaEncoder();
+
+    @Setup
+    public void setUp() {
+        fixes = Fixes.walk(batchSize, 48.8566, 2.3522, 1);
+    }
+
+    @Benchmark
+    public List<HashMap<String, Double>> map() {
+        List<HashMap<String, Double>> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(LocationPayload.toMap(fixes, i));
+        }
+        return batch;
+    }
+
+    @Benchmark
+    public double[] packed() {
+        return LocationPayload.slice(fixes, 0, batchSize);
+    }
+
+    @Benchmark
+    public byte[] delta() {
+        return encoder.encode(fixes, 0, batchSize);
+    }
+}
@@ -0,0 +1,66 @@
+package com.lyokone.location;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per batch of the processing stages of the location callback, each
+ * stage running on a fresh copy of the same track.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private double[] track;
+    private double[] fixes;
+
+    @Setup
+    public void setUp() {
+        track = Fixes.walk(BATCH_SIZE, 48.8566, 2.3522, 2);
+        fixes = new double[track.length];
+    }
+
+    private double[] copy() {
+        System.arraycopy(track, 0, fixes, 0, track.length);
+        return fixes;
+    }
+
+    @Benchmark
+    public int kalmanFilter() {
+        return new KalmanFilter(4, 0).filter(copy(), BATCH_SIZE);
+    }
+
+    @Benchmark
+    public int simplify() {
+        return new TrackSimplifier(5).simplify(copy(), BATCH_SIZE);
+    }
+
+    @Benchmark
+    public boolean motionState() {
+        return new MotionStateDetector().update(copy(), BATCH_SIZE);
+    }
+
+    @Benchmark
+    public int all() {
+        double[] fixes = copy();
+        int count = new KalmanFilter(4, 0).filter(fixes, BATCH_SIZE);
+        new MotionStateDetector().update(fixes, count);
+        return new TrackSimplifier(5).simplify(fixes, count);
+    }
+}
@@ -0,0 +1,156 @@
+package com.lyokone.location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks the geohash cell of the device, to report only when it moves into
+ * another cell.
+ * <p/>
+ * The bounds of the current cell are kept, so that a fix staying in it is
+ * tested in constant time without encoding its geohash. To avoid reporting
+ * every fix of a device moving along the border of two cells, the device only
+ * leaves a cell once further than a tenth of the cell size from it.
+ */
+final class CellTracker {
+
+    static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    // Fraction of the cell size the device has to go past its border to leave it
+    private static final double HYSTERESIS = 0.1;
+
+    interface Listener {
+        void onCellChanged(String cell, String previous, double latitude, double longitude, double time);
+    }
+
+    private final int precision;
+
+    private String cell;
+    // South, north, west and east bounds of the current cell, including the
+    // hysteresis
+    private final double[] bounds = new double[4];
+
+    /**
+     * @param precision number of characters of the geohashes, from 1 (5000 km
+     *                  cells) to 12 (4 cm cells).
+     */
+    CellTracker(int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("The cell precision must be between 1 and " + MAX_PRECISION);
+        }
+        this.precision = precision;
+    }
+
+    int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Reports the cell changes of the fixes of a packed payload, see
+     * {@link LocationPayload}.
+     *
+     * @return the number of cell changes.
+     */
+    int update(double[] fixes, int count, Listener listener) {
+        int changes = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            double latitude = fixes[offset + LocationPayload.LATITUDE];
+            double longitude = fixes[offset + LocationPayload.LONGITUDE];
+            if (cell != null && latitude >= bounds[0] && latitude <= bounds[1] && longitude >= bounds[2]
+                    && longitude <= bounds[3]) {
+                continue;
+            }
+            String previous = cell;
+            cell = encode(latitude, longitude, precision, bounds);
+            double latitudeMargin = (bounds[1] - bounds[0]) * HYSTERESIS;
+            double longitudeMargin = (bounds[3] - bounds[2]) * HYSTERESIS;
+            bounds[0] -= latitudeMargin;
+            bounds[1] += latitudeMargin;
+            bounds[2] -= longitudeMargin;
+            bounds[3] += longitudeMargin;
+            listener.onCellChanged(cell, previous, latitude, longitude, fixes[offset + LocationPayload.TIME]);
+            changes++;
+        }
+        return changes;
+    }
+
+    /**
+     * Encodes the geohash of a position.
+     *
+     * @param bounds receives the south, north, west and east bounds of the cell,
+     *               may be null.
+     */
+    static String encode(double latitude, double longitude, int precision, double[] bounds) {
+        double south = -90;
+        double north = 90;
+        double west = -180;
+        double east = 180;
+        char[] hash = new char[precision];
+        boolean even = true;
+        for (int i = 0; i < precision; i++) {
+            int index = 0;
+            for (int bit = 0; bit < 5; bit++) {
+                index <<= 1;
+                if (even) {
+                    double middle = (west + east) / 2;
+                    if (longitude >= middle) {
+                        index |= 1;
+                        west = middle;
+                    } else {
+                        east = middle;
+                    }
+                } else {
+                    double middle = (south + north) / 2;
+                    if (latitude >= middle) {
+                        index |= 1;
+                        south = middle;
+                    } else {
+                        north = middle;
+                    }
+                }
+                even = !even;
+            }
+            hash[i] = BASE32[index];
+        }
+        if (bounds != null) {
+            bounds[0] = south;
+            bounds[1] = north;
+            bounds[2] = west;
+            bounds[3] = east;
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Returns the geohashes of the cells around a position's cell, clockwise
+     * from the north one. Cells beyond the poles are left out.
+     */
+    static List<String> neighbors(double latitude, double longitude, int precision) {
+        double[] bounds = new double[4];
+        encode(latitude, longitude, precision, bounds);
+        double height = bounds[1] - bounds[0];
+        double width = bounds[3] - bounds[2];
+        double centerLatitude = (bounds[0] + bounds[1]) / 2;
+        double centerLongitude = (bounds[2] + bounds[3]) / 2;
+        int[][] directions = { { 1, 0 }, { 1, 1 }, { 0, 1 }, { -1, 1 }, { -1, 0 }, { -1, -1 }, { 0, -1 },
+                { 1, -1 } };
+        List<String> neighbors = new ArrayList<>(directions.length);
+        for (int[] direction : directions) {
+            double neighborLatitude = centerLatitude + direction[0] * height;
+            if (neighborLatitude < -90 || neighborLatitude > 90) {
+                continue;
+            }
+            double neighborLongitude = centerLongitude + direction[1] * width;
+            if (neighborLongitude > 180) {
+                neighborLongitude -= 360;
+            } else if (neighborLongitude < -180) {
+                neighborLongitude += 360;
+            }
+            neighbors.add(encode(neighborLatitude, neighborLongitude, precision, null));
+        }
+        return neighbors;
+    }
+}
@@ -0,0 +1,188 @@
+package com.lyokone.location;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Paces the payloads sent on the location stream, so that the backlog stays
+ * bounded when Flutter can't keep up.
+ * <p/>
+ * The policy decides which payloads are kept while waiting: all of them, only
+ * the latest, or the most recent ones up to a capacity. With the demand
+ * policy, a payload is only sent once Flutter acknowledged the previous one.
+ * Independently, consecutive payloads can be spaced by a minimum interval.
+ * <p/>
+ * A payload targeted to some subscriptions only replaces the waiting payloads
+ * whose targets it reaches too, so that no subscription loses its latest fix
+ * to the fixes of another one. An untargeted payload reaches every
+ * subscription.
+ * Not thread safe, used on the main thread.
+ */
+final class DeliveryQueue {
+
+    static final int POLICY_ALL = 0;
+    static final int POLICY_LATEST = 1;
+    static final int POLICY_DROP_OLDEST = 2;
+    static final int POLICY_DEMAND = 3;
+
+    // Payloads sent and not acknowledged yet, with the demand policy
+    private static final int DEMAND_WINDOW = 1;
+
+    interface Sink {
+        void send(Object payload);
+    }
+
+    private final int policy;
+    private final int capacity;
+    private final long minInterval;
+
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private long lastSendTime;
+    private boolean sent;
+    private int credits = DEMAND_WINDOW;
+
+    /**
+     * @param capacity    payloads kept while waiting with the drop oldest and
+     *                    demand policies.
+     * @param minInterval interval in milliseconds between two payloads, no
+     *                    limit when 0 or less.
+     */
+    DeliveryQueue(int policy, int capacity, long minInterval) {
+        if (policy < POLICY_ALL || policy > POLICY_DEMAND) {
+            throw new IllegalArgumentException("Unknown delivery policy: " + policy);
+        }
+        this.policy = policy;
+        this.capacity = Math.max(1, capacity);
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * Queues a payload, dropping the ones the policy doesn't keep.
+     *
+     * @return the number of fixes dropped.
+     */
+    int offer(Object payload) {
+        int dropped = 0;
+        if (policy != POLICY_ALL) {
+            int kept = policy == POLICY_LATEST ? 1 : capacity;
+            int[] targets = targets(payload);
+            // Waiting payloads the new one replaces, the oldest first
+            int replaceable = 0;
+            for (Object waiting : pending) {
+                if (reaches(targets, targets(waiting))) {
+                    replaceable++;
+                }
+            }
+            for (Iterator<Object> it = pending.iterator(); it.hasNext() && replaceable >= kept;) {
+                Object waiting = it.next();
+                if (reaches(targets, targets(waiting))) {
+                    it.remove();
+                    replaceable--;
+                    dropped += LocationPayload.fixCount(waiting);
+                }
+            }
+        }
+        pending.add(payload);
+        return dropped;
+    }
+
+    /**
+     * Returns the subscriptions a payload is targeted to, null when it reaches
+     * every subscription.
+     */
+    private static int[] targets(Object payload) {
+        if (payload instanceof Map) {
+            Object targets = ((Map<?, ?>) payload).get("targets");
+            if (targets instanceof int[]) {
+                return (int[]) targets;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether every subscription targeted by a waiting payload is targeted by a
+     * new payload too.
+     */
+    private static boolean reaches(int[] targets, int[] waitingTargets) {
+        if (targets == null) {
+            return true;
+        }
+        if (waitingTargets == null) {
+            return false;
+        }
+        for (int waiting : waitingTargets) {
+            boolean found = false;
+            for (int target : targets) {
+                if (target == waiting) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends the payloads allowed at the given time, in milliseconds.
+     *
+     * @return the delay in milliseconds before the next payload can be sent, or
+     *         0 when nothing is waiting for time to pass.
+     */
+    long drain(long now, Sink sink) {
+        while (!pending.isEmpty()) {
+            if (policy == POLICY_DEMAND && credits == 0) {
+                // Resumed by the next acknowledgement
+                return 0;
+            }
+            if (minInterval > 0 && sent && now - lastSendTime < minInterval) {
+                return minInterval - (now - lastSendTime);
+            }
+            sent = true;
+            lastSendTime = now;
+            if (policy == POLICY_DEMAND) {
+                credits--;
+            }
+            sink.send(pending.poll());
+        }
+        return 0;
+    }
+
+    /**
+     * Records that Flutter received a payload, with the demand policy.
+     */
+    void acknowledge() {
+        credits = Math.min(credits + 1, DEMAND_WINDOW);
+    }
+
+    /**
+     * Moves the waiting payloads and the pacing to the queue replacing this one
+     * after a change of settings, in order.
+     *
+     * @return the number of fixes dropped by the policy of the new queue.
+     */
+    int transferTo(DeliveryQueue queue) {
+        int dropped = 0;
+        for (Object payload : pending) {
+            dropped += queue.offer(payload);
+        }
+        queue.sent = sent;
+        queue.lastSendTime = lastSendTime;
+        queue.credits = credits;
+        clear();
+        return dropped;
+    }
+
+    /**
+     * Drops the waiting payloads, when the stream is cancelled.
+     */
+    void clear() {
+        pending.clear();
+        sent = false;
+        credits = DEMAND_WINDOW;
+    }
+}
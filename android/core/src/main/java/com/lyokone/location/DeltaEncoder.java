@@ -0,0 +1,104 @@
+package com.lyokone.location;
+
+import java.util.Arrays;
+
+/**
+ * Compact encoding of a batch of fixes, sent to Flutter with the delta payload
+ * format. Values are scaled to integers, coordinates to 1e-7 degree, altitude
+ * and accuracy to the centimeter, speed to the cm/s, heading to the
+ * hundredth of degree and time to the millisecond. Coordinates, altitude and
+ * time are written as the difference with the previous fix, every value as a
+ * zigzag varint.
+ * <p/>
+ * Layout: count, then for each fix latitude, longitude, time, altitude,
+ * accuracy, speed and heading. The speed and the heading are optional: their
+ * zigzag value is written plus one, 0 meaning unknown. The speed accuracy and the NMEA values
+ * are not encoded.
+ */
+final class DeltaEncoder {
+
+    private static final double COORDINATE_SCALE = 1e7;
+    private static final double CENTI_SCALE = 100;
+
+    // Reused between batches, only grown when needed
+    private byte[] buffer = new byte[256];
+    private int position;
+
+    /**
+     * Encodes the fixes of a packed payload between {@code start} (inclusive)
+     * and {@code end} (exclusive). Synchronized as the cached fix is encoded on
+     * the main thread.
+     */
+    synchronized byte[] encode(double[] fixes, int start, int end) {
+        position = 0;
+        writeVarint(end - start);
+
+        long latitude = 0;
+        long longitude = 0;
+        long time = 0;
+        long altitude = 0;
+        for (int i = start; i < end; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            long value = Math.round(fixes[offset + LocationPayload.LATITUDE] * COORDINATE_SCALE);
+            writeSigned(value - latitude);
+            latitude = value;
+
+            value = Math.round(fixes[offset + LocationPayload.LONGITUDE] * COORDINATE_SCALE);
+            writeSigned(value - longitude);
+            longitude = value;
+
+            value = (long) fixes[offset + LocationPayload.TIME];
+            writeSigned(value - time);
+            time = value;
+
+            // An unknown altitude is encoded as the previous one
+            double alt = fixes[offset + LocationPayload.ALTITUDE];
+            value = Double.isNaN(alt) ? altitude : Math.round(alt * CENTI_SCALE);
+            writeSigned(value - altitude);
+            altitude = value;
+
+            writeSigned(Math.round(fixes[offset + LocationPayload.ACCURACY] * CENTI_SCALE));
+            writeOptional(fixes[offset + LocationPayload.SPEED], CENTI_SCALE);
+            writeOptional(fixes[offset + LocationPayload.HEADING], CENTI_SCALE);
+        }
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Returns the number of fixes of an encoded payload.
+     */
+    static int count(byte[] payload) {
+        int count = 0;
+        for (int i = 0, shift = 0; i < payload.length; i++, shift += 7) {
+            count |= (payload[i] & 0x7F) << shift;
+            if ((payload[i] & 0x80) == 0) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private void writeOptional(double value, double scale) {
+        if (Double.isNaN(value)) {
+            writeVarint(0);
+            return;
+        }
+        long scaled = Math.round(value * scale);
+        writeVarint(((scaled << 1) ^ (scaled >> 63)) + 1);
+    }
+
+    private void writeSigned(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) {
+        if (position + 10 > buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+}
@@ -0,0 +1,48 @@
+package com.lyokone.location;
+
+/**
+ * Distances on the mean earth sphere, shared by the core classes.
+ * <p/>
+ * Most of them only compare positions a few hundred meters apart, for which
+ * the equirectangular approximation of {@link #distance} is well below the
+ * accuracy of a fix and avoids the trigonometry of the haversine formula.
+ */
+final class GeoMath {
+
+    // Mean earth radius in meters
+    static final double EARTH_RADIUS = 6371008.8;
+
+    static final double METERS_PER_DEGREE_LAT = Math.toRadians(EARTH_RADIUS);
+
+    private GeoMath() {
+    }
+
+    /**
+     * Length in meters of a degree of longitude at a latitude.
+     */
+    static double metersPerDegreeLon(double latitude) {
+        return METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * Distance in meters with the equirectangular approximation, for nearby
+     * positions.
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double north = (lat2 - lat1) * METERS_PER_DEGREE_LAT;
+        double east = (lon2 - lon1) * metersPerDegreeLon((lat1 + lat2) / 2);
+        return Math.sqrt(north * north + east * east);
+    }
+
+    /**
+     * Great circle distance in meters, with the haversine formula.
+     */
+    static double haversineDistance(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double sinLat = Math.sin((phi2 - phi1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double h = sinLat * sinLat + Math.cos(phi1) * Math.cos(phi2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+}
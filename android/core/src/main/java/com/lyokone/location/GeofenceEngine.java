@@ -0,0 +1,415 @@
+package com.lyokone.location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Evaluates circular and polygonal geofences against the incoming fixes.
+ * <p/>
+ * Fences are indexed in a uniform grid of {@link #CELL_SIZE} degrees, so that
+ * only the fences overlapping the cell of a fix and the fences the device is
+ * currently in are tested. Only the transitions (enter, exit and dwell) are
+ * reported. A fence replaced by another of the same id keeps the state of the
+ * device. Fences are expected to be loaded in bulk: removing fences rebuilds
+ * the index.
+ */
+final class GeofenceEngine {
+
+    static final int TRANSITION_ENTER = 0;
+    static final int TRANSITION_EXIT = 1;
+    static final int TRANSITION_DWELL = 2;
+
+    // About 1 km at the equator
+    static final double CELL_SIZE = 0.01;
+
+    // Fences overlapping more cells are tested for every fix instead of indexed
+    private static final int MAX_CELLS_PER_FENCE = 1024;
+
+    interface Listener {
+        void onTransition(String id, int transition, double latitude, double longitude, double time);
+    }
+
+    private static final class Geofence {
+        final String id;
+        // Circle when polygon is null
+        final double latitude;
+        final double longitude;
+        final double radius;
+        // Latitude and longitude of each vertex, interleaved
+        final double[] polygon;
+        final long dwellTime;
+
+        final double minLatitude;
+        final double maxLatitude;
+        final double minLongitude;
+        final double maxLongitude;
+
+        // State of the device relative to the fence
+        boolean inside;
+        boolean dwellReported;
+        double enterTime;
+
+        Geofence(String id, double latitude, double longitude, double radius, double[] polygon, long dwellTime) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+            this.polygon = polygon;
+            this.dwellTime = dwellTime;
+
+            if (polygon == null) {
+                double latitudeSpan = radius / GeoMath.METERS_PER_DEGREE_LAT;
+                double longitudeSpan = latitudeSpan / Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+                minLatitude = latitude - latitudeSpan;
+                maxLatitude = latitude + latitudeSpan;
+                minLongitude = longitude - longitudeSpan;
+                maxLongitude = longitude + longitudeSpan;
+            } else {
+                double minLat = Double.MAX_VALUE;
+                double maxLat = -Double.MAX_VALUE;
+                double minLon = Double.MAX_VALUE;
+                double maxLon = -Double.MAX_VALUE;
+                for (int i = 0; i < polygon.length; i += 2) {
+                    minLat = Math.min(minLat, polygon[i]);
+                    maxLat = Math.max(maxLat, polygon[i]);
+                    minLon = Math.min(minLon, polygon[i + 1]);
+                    maxLon = Math.max(maxLon, polygon[i + 1]);
+                }
+                minLatitude = minLat;
+                maxLatitude = maxLat;
+                minLongitude = minLon;
+                maxLongitude = maxLon;
+            }
+        }
+
+        boolean contains(double lat, double lon) {
+            if (lat < minLatitude || lat > maxLatitude || lon < minLongitude || lon > maxLongitude) {
+                return false;
+            }
+            if (polygon == null) {
+                double north = (lat - latitude) * GeoMath.METERS_PER_DEGREE_LAT;
+                double east = (lon - longitude) * GeoMath.metersPerDegreeLon(latitude);
+                return north * north + east * east <= radius * radius;
+            }
+            // Ray casting along the longitude axis
+            boolean contains = false;
+            int count = polygon.length;
+            for (int i = 0, j = count - 2; i < count; j = i, i += 2) {
+                double latI = polygon[i];
+                double latJ = polygon[j];
+                if ((latI > lat) != (latJ > lat)) {
+                    double lonI = polygon[i + 1];
+                    double lonJ = polygon[j + 1];
+                    if (lon < (lonJ - lonI) * (lat - latI) / (latJ - latI) + lonI) {
+                        contains = !contains;
+                    }
+                }
+            }
+            return contains;
+        }
+    }
+
+    private final List<Geofence> fences = new ArrayList<>();
+    private final HashMap<String, Integer> indexById = new HashMap<>();
+
+    // Grid cells, open addressing from the cell key to the fences overlapping it
+    private long[] cellKeys = new long[0];
+    private int[][] cellFences = new int[0][];
+    private int[] cellSizes = new int[0];
+    private int cellCount;
+
+    private int[] largeFences = new int[0];
+    private int largeFenceCount;
+
+    // Fences the device is in, tested for every fix to detect the exits
+    private int[] insideFences = new int[16];
+    private int insideCount;
+
+    synchronized int size() {
+        return fences.size();
+    }
+
+    synchronized void addCircle(String id, double latitude, double longitude, double radius, long dwellTime) {
+        add(new Geofence(id, latitude, longitude, radius, null, dwellTime));
+    }
+
+    /**
+     * @param polygon latitude and longitude of each vertex, interleaved.
+     */
+    synchronized void addPolygon(String id, double[] polygon, long dwellTime) {
+        if (polygon.length < 6 || polygon.length % 2 != 0) {
+            throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+        }
+        add(new Geofence(id, 0, 0, 0, polygon, dwellTime));
+    }
+
+    /**
+     * Removes the given fences, without reporting exits.
+     */
+    synchronized void remove(List<String> ids) {
+        boolean removed = false;
+        for (String id : ids) {
+            Integer index = indexById.remove(id);
+            if (index != null) {
+                fences.set(index, null);
+                removed = true;
+            }
+        }
+        if (removed) {
+            List<Geofence> remaining = new ArrayList<>(fences.size());
+            for (Geofence fence : fences) {
+                if (fence != null) {
+                    remaining.add(fence);
+                }
+            }
+            resetIndex();
+            for (Geofence fence : remaining) {
+                int index = fences.size();
+                add(fence);
+                if (fence.inside) {
+                    addInside(index);
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        resetIndex();
+    }
+
+    private void resetIndex() {
+        fences.clear();
+        indexById.clear();
+        cellKeys = new long[0];
+        cellFences = new int[0][];
+        cellSizes = new int[0];
+        cellCount = 0;
+        largeFenceCount = 0;
+        insideCount = 0;
+    }
+
+    /**
+     * Tests the fixes of a packed payload, see {@link LocationPayload}, and
+     * reports the transitions to the listener.
+     */
+    synchronized void evaluate(double[] fixes, int count, Listener listener) {
+        for (int i = 0; i < count; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            evaluate(fixes[offset + LocationPayload.LATITUDE], fixes[offset + LocationPayload.LONGITUDE],
+                    fixes[offset + LocationPayload.TIME], listener);
+        }
+    }
+
+    synchronized void evaluate(double latitude, double longitude, double time, Listener listener) {
+        // Exits and dwells of the fences the device was in
+        for (int i = 0; i < insideCount;) {
+            Geofence fence = fences.get(insideFences[i]);
+            if (!fence.contains(latitude, longitude)) {
+                fence.inside = false;
+                insideFences[i] = insideFences[--insideCount];
+                listener.onTransition(fence.id, TRANSITION_EXIT, latitude, longitude, time);
+                continue;
+            }
+            if (!fence.dwellReported && fence.dwellTime > 0 && time - fence.enterTime >= fence.dwellTime) {
+                fence.dwellReported = true;
+                listener.onTransition(fence.id, TRANSITION_DWELL, latitude, longitude, time);
+            }
+            i++;
+        }
+
+        // Enters of the fences near the device
+        int slot = findCell(cellKey(cellIndex(latitude), cellIndex(longitude)));
+        if (slot >= 0 && cellFences[slot] != null) {
+            testEnters(cellFences[slot], cellSizes[slot], latitude, longitude, time, listener);
+        }
+        testEnters(largeFences, largeFenceCount, latitude, longitude, time, listener);
+    }
+
+    private void testEnters(int[] candidates, int count, double latitude, double longitude, double time,
+            Listener listener) {
+        for (int i = 0; i < count; i++) {
+            int index = candidates[i];
+            Geofence fence = fences.get(index);
+            if (!fence.inside && fence.contains(latitude, longitude)) {
+                fence.inside = true;
+                fence.dwellReported = false;
+                fence.enterTime = time;
+                addInside(index);
+                listener.onTransition(fence.id, TRANSITION_ENTER, latitude, longitude, time);
+            }
+        }
+    }
+
+    private void addInside(int index) {
+        if (insideCount == insideFences.length) {
+            insideFences = Arrays.copyOf(insideFences, insideCount * 2);
+        }
+        insideFences[insideCount++] = index;
+    }
+
+    private void add(Geofence fence) {
+        Integer existing = indexById.get(fence.id);
+        if (existing != null) {
+            // Replaced in place, only this fence is indexed again
+            int index = existing;
+            Geofence replaced = fences.get(index);
+            unindexFence(index);
+            fences.set(index, fence);
+            indexFence(index);
+            if (replaced.inside) {
+                // Still in it, until a fix outside of the new geometry reports the exit
+                fence.inside = true;
+                fence.dwellReported = replaced.dwellReported;
+                fence.enterTime = replaced.enterTime;
+                addInside(index);
+            }
+            return;
+        }
+        int index = fences.size();
+        fences.add(fence);
+        indexById.put(fence.id, index);
+        indexFence(index);
+    }
+
+    private void indexFence(int index) {
+        Geofence fence = fences.get(index);
+        long minLat = cellIndex(fence.minLatitude);
+        long maxLat = cellIndex(fence.maxLatitude);
+        long minLon = cellIndex(fence.minLongitude);
+        long maxLon = cellIndex(fence.maxLongitude);
+        if (isLarge(minLat, maxLat, minLon, maxLon)) {
+            if (largeFenceCount == largeFences.length) {
+                largeFences = Arrays.copyOf(largeFences, Math.max(4, largeFenceCount * 2));
+            }
+            largeFences[largeFenceCount++] = index;
+            return;
+        }
+        for (long lat = minLat; lat <= maxLat; lat++) {
+            for (long lon = minLon; lon <= maxLon; lon++) {
+                addToCell(cellKey(lat, lon), index);
+            }
+        }
+    }
+
+    /**
+     * Removes a fence from the cells, the large fences and the fences the
+     * device is in. Emptied cells are kept, not to break the probe sequences of
+     * the others.
+     */
+    private void unindexFence(int index) {
+        Geofence fence = fences.get(index);
+        if (fence.inside) {
+            insideCount = removeIndex(insideFences, insideCount, index);
+        }
+        long minLat = cellIndex(fence.minLatitude);
+        long maxLat = cellIndex(fence.maxLatitude);
+        long minLon = cellIndex(fence.minLongitude);
+        long maxLon = cellIndex(fence.maxLongitude);
+        if (isLarge(minLat, maxLat, minLon, maxLon)) {
+            largeFenceCount = removeIndex(largeFences, largeFenceCount, index);
+            return;
+        }
+        for (long lat = minLat; lat <= maxLat; lat++) {
+            for (long lon = minLon; lon <= maxLon; lon++) {
+                int slot = findCell(cellKey(lat, lon));
+                if (slot >= 0) {
+                    cellSizes[slot] = removeIndex(cellFences[slot], cellSizes[slot], index);
+                }
+            }
+        }
+    }
+
+    private static boolean isLarge(long minLat, long maxLat, long minLon, long maxLon) {
+        return (maxLat - minLat + 1) * (maxLon - minLon + 1) > MAX_CELLS_PER_FENCE;
+    }
+
+    /**
+     * Removes a value from the first {@code count} values of an array, the last
+     * one taking its place.
+     *
+     * @return the new count.
+     */
+    private static int removeIndex(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                values[i] = values[--count];
+                return count;
+            }
+        }
+        return count;
+    }
+
+    private static long cellIndex(double degrees) {
+        return (long) Math.floor(degrees / CELL_SIZE);
+    }
+
+    private static long cellKey(long lat, long lon) {
+        return (lat << 32) ^ (lon & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Returns the slot of the cell, or -1 when it has no fence.
+     */
+    private int findCell(long key) {
+        if (cellKeys.length == 0) {
+            return -1;
+        }
+        int mask = cellKeys.length - 1;
+        for (int slot = hash(key, mask);; slot = (slot + 1) & mask) {
+            if (cellFences[slot] == null) {
+                return -1;
+            }
+            if (cellKeys[slot] == key) {
+                return slot;
+            }
+        }
+    }
+
+    private void addToCell(long key, int index) {
+        if ((cellCount + 1) * 2 > cellKeys.length) {
+            growCells();
+        }
+        int mask = cellKeys.length - 1;
+        int slot = hash(key, mask);
+        while (cellFences[slot] != null && cellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (cellFences[slot] == null) {
+            cellKeys[slot] = key;
+            cellFences[slot] = new int[2];
+            cellCount++;
+        } else if (cellSizes[slot] == cellFences[slot].length) {
+            cellFences[slot] = Arrays.copyOf(cellFences[slot], cellSizes[slot] * 2);
+        }
+        cellFences[slot][cellSizes[slot]++] = index;
+    }
+
+    private void growCells() {
+        long[] oldKeys = cellKeys;
+        int[][] oldFences = cellFences;
+        int[] oldSizes = cellSizes;
+        int capacity = Math.max(64, oldKeys.length * 2);
+        cellKeys = new long[capacity];
+        cellFences = new int[capacity][];
+        cellSizes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldFences[i] != null) {
+                int slot = hash(oldKeys[i], mask);
+                while (cellFences[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                cellKeys[slot] = oldKeys[i];
+                cellFences[slot] = oldFences[i];
+                cellSizes[slot] = oldSizes[i];
+            }
+        }
+    }
+}
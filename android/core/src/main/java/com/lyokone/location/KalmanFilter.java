@@ -0,0 +1,246 @@
+package com.lyokone.location;
+
+/**
+ * Constant velocity Kalman filter smoothing the fixes, with outlier rejection.
+ * <p/>
+ * The state is the position and the velocity along the north and east axes,
+ * in meters around a local origin. The axes are filtered independently, each
+ * with a 2x2 covariance. The position is measured with the accuracy of the
+ * fix, the velocity with its speed and heading when available. A fix whose
+ * innovation is further than the gate (in standard deviations) from the
+ * prediction is rejected, unless too many fixes were rejected in a row, in
+ * which case the filter restarts from it. Filtering never allocates.
+ */
+final class KalmanFilter {
+
+    // Standard deviation of the acceleration, in m/s^2
+    private static final double ACCELERATION_NOISE = 3;
+
+    // Used when the fix doesn't provide its speed accuracy, in m/s
+    private static final double DEFAULT_SPEED_ACCURACY = 1.5;
+
+    private static final int MAX_CONSECUTIVE_REJECTIONS = 5;
+
+    // Distance from the origin after which it is moved to the current position
+    private static final double MAX_ORIGIN_DISTANCE = 50000;
+
+    private final double gate;
+    private final double maxAccuracy;
+
+    private boolean initialized;
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLon;
+    private double lastTime;
+    private int consecutiveRejections;
+
+    // State and covariance [[p, pv], [pv, v]] of each axis
+    private double north;
+    private double velocityNorth;
+    private double northP;
+    private double northPV;
+    private double northV;
+
+    private double east;
+    private double velocityEast;
+    private double eastP;
+    private double eastPV;
+    private double eastV;
+
+    /**
+     * @param gate        innovation in standard deviations above which a fix is
+     *                    an outlier, no gating when 0 or less.
+     * @param maxAccuracy accuracy in meters above which a fix is rejected, no
+     *                    limit when 0 or less.
+     */
+    KalmanFilter(double gate, double maxAccuracy) {
+        this.gate = gate;
+        this.maxAccuracy = maxAccuracy;
+    }
+
+    double getGate() {
+        return gate;
+    }
+
+    double getMaxAccuracy() {
+        return maxAccuracy;
+    }
+
+    /**
+     * Filters the fixes of a packed payload in place, see
+     * {@link LocationPayload}. The position and accuracy of the kept fixes are
+     * replaced by the estimate, rejected fixes are removed and the kept ones
+     * moved to the front of the array.
+     *
+     * @return the number of kept fixes.
+     */
+    int filter(double[] fixes, int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            if (!update(fixes, offset)) {
+                continue;
+            }
+            if (kept != i) {
+                System.arraycopy(fixes, offset, fixes, kept * LocationPayload.STRIDE, LocationPayload.STRIDE);
+            }
+            kept++;
+        }
+        return kept;
+    }
+
+    void reset() {
+        initialized = false;
+        consecutiveRejections = 0;
+    }
+
+    private boolean update(double[] fixes, int offset) {
+        double latitude = fixes[offset + LocationPayload.LATITUDE];
+        double longitude = fixes[offset + LocationPayload.LONGITUDE];
+        double accuracy = fixes[offset + LocationPayload.ACCURACY];
+        double time = fixes[offset + LocationPayload.TIME];
+
+        if (Double.isNaN(accuracy) || accuracy <= 0 || (maxAccuracy > 0 && accuracy > maxAccuracy)) {
+            return false;
+        }
+        double variance = accuracy * accuracy;
+
+        if (!initialized) {
+            start(latitude, longitude, variance, time);
+            return true;
+        }
+
+        double measuredNorth = (latitude - originLatitude) * GeoMath.METERS_PER_DEGREE_LAT;
+        double measuredEast = (longitude - originLongitude) * metersPerDegreeLon;
+
+        predict((time - lastTime) / 1000);
+
+        // Gating on the squared Mahalanobis distance of the position innovation
+        double innovationNorth = measuredNorth - north;
+        double innovationEast = measuredEast - east;
+        double northS = northP + variance;
+        double eastS = eastP + variance;
+        double distance = innovationNorth * innovationNorth / northS + innovationEast * innovationEast / eastS;
+        if (gate > 0 && distance > gate * gate) {
+            if (++consecutiveRejections <= MAX_CONSECUTIVE_REJECTIONS) {
+                // The prediction is kept, the next fix is predicted from it
+                lastTime = time;
+                return false;
+            }
+            // The estimate is lost, starts again from this fix
+            start(latitude, longitude, variance, time);
+            return true;
+        }
+        consecutiveRejections = 0;
+        lastTime = time;
+
+        // Position update, H = [1, 0]
+        double gainP = northP / northS;
+        double gainV = northPV / northS;
+        north += gainP * innovationNorth;
+        velocityNorth += gainV * innovationNorth;
+        northV -= gainV * northPV;
+        northPV -= gainV * northP;
+        northP -= gainP * northP;
+
+        gainP = eastP / eastS;
+        gainV = eastPV / eastS;
+        east += gainP * innovationEast;
+        velocityEast += gainV * innovationEast;
+        eastV -= gainV * eastPV;
+        eastPV -= gainV * eastP;
+        eastP -= gainP * eastP;
+
+        // Velocity update, H = [0, 1]
+        double speed = fixes[offset + LocationPayload.SPEED];
+        double heading = fixes[offset + LocationPayload.HEADING];
+        if (speed > 0 && !Double.isNaN(heading)) {
+            double speedAccuracy = fixes[offset + LocationPayload.SPEED_ACCURACY];
+            if (Double.isNaN(speedAccuracy) || speedAccuracy <= 0) {
+                speedAccuracy = DEFAULT_SPEED_ACCURACY;
+            }
+            double speedVariance = speedAccuracy * speedAccuracy;
+            double bearing = Math.toRadians(heading);
+
+            double innovation = speed * Math.cos(bearing) - velocityNorth;
+            double s = northV + speedVariance;
+            gainP = northPV / s;
+            gainV = northV / s;
+            north += gainP * innovation;
+            velocityNorth += gainV * innovation;
+            northP -= gainP * northPV;
+            northPV -= gainP * northV;
+            northV -= gainV * northV;
+
+            innovation = speed * Math.sin(bearing) - velocityEast;
+            s = eastV + speedVariance;
+            gainP = eastPV / s;
+            gainV = eastV / s;
+            east += gainP * innovation;
+            velocityEast += gainV * innovation;
+            eastP -= gainP * eastPV;
+            eastPV -= gainP * eastV;
+            eastV -= gainV * eastV;
+        }
+
+        fixes[offset + LocationPayload.LATITUDE] = originLatitude + north / GeoMath.METERS_PER_DEGREE_LAT;
+        fixes[offset + LocationPayload.LONGITUDE] = originLongitude + east / metersPerDegreeLon;
+        fixes[offset + LocationPayload.ACCURACY] = Math.sqrt(Math.max(northP, eastP));
+
+        if (north * north + east * east > MAX_ORIGIN_DISTANCE * MAX_ORIGIN_DISTANCE) {
+            moveOrigin();
+        }
+        return true;
+    }
+
+    private void start(double latitude, double longitude, double variance, double time) {
+        initialized = true;
+        consecutiveRejections = 0;
+        originLatitude = latitude;
+        originLongitude = longitude;
+        metersPerDegreeLon = GeoMath.metersPerDegreeLon(latitude);
+        lastTime = time;
+
+        north = 0;
+        east = 0;
+        velocityNorth = 0;
+        velocityEast = 0;
+        northP = variance;
+        eastP = variance;
+        northPV = 0;
+        eastPV = 0;
+        // Unknown velocity, a few tens of m/s
+        northV = 400;
+        eastV = 400;
+    }
+
+    private void predict(double dt) {
+        if (dt <= 0) {
+            return;
+        }
+        double q = ACCELERATION_NOISE * ACCELERATION_NOISE;
+        double dt2 = dt * dt;
+        double qP = q * dt2 * dt2 / 4;
+        double qPV = q * dt2 * dt / 2;
+        double qV = q * dt2;
+
+        // x = F x, P = F P F' + Q with F = [[1, dt], [0, 1]]
+        north += velocityNorth * dt;
+        northP += 2 * dt * northPV + dt2 * northV + qP;
+        northPV += dt * northV + qPV;
+        northV += qV;
+
+        east += velocityEast * dt;
+        eastP += 2 * dt * eastPV + dt2 * eastV + qP;
+        eastPV += dt * eastV + qPV;
+        eastV += qV;
+    }
+
+    private void moveOrigin() {
+        originLatitude += north / GeoMath.METERS_PER_DEGREE_LAT;
+        originLongitude += east / metersPerDegreeLon;
+        metersPerDegreeLon = GeoMath.metersPerDegreeLon(originLatitude);
+        north = 0;
+        east = 0;
+    }
+}
@@ -0,0 +1,100 @@
+package com.lyokone.location;
+
+/**
+ * Bounded history of the most recent fixes. Values are kept in preallocated
+ * primitive arrays, one per field, so that recording a fix never allocates.
+ * The oldest fixes are overwritten once the capacity is reached.
+ */
+final class LocationHistory {
+
+    // Layout of the packed history sent to Flutter
+    static final int LATITUDE = 0;
+    static final int LONGITUDE = 1;
+    static final int ACCURACY = 2;
+    static final int TIME = 3;
+
+    static final int STRIDE = 4;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] accuracies;
+    private final double[] times;
+
+    // Index of the next write, and number of valid entries
+    private int head;
+    private int size;
+
+    LocationHistory(int capacity) {
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        accuracies = new double[capacity];
+        times = new double[capacity];
+    }
+
+    int capacity() {
+        return times.length;
+    }
+
+    /**
+     * Records the fixes of a packed payload, see {@link LocationPayload}.
+     */
+    synchronized void add(double[] fixes, int count) {
+        int capacity = times.length;
+        if (capacity == 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            latitudes[head] = fixes[offset + LocationPayload.LATITUDE];
+            longitudes[head] = fixes[offset + LocationPayload.LONGITUDE];
+            accuracies[head] = fixes[offset + LocationPayload.ACCURACY];
+            times[head] = fixes[offset + LocationPayload.TIME];
+            head = head + 1 == capacity ? 0 : head + 1;
+            if (size < capacity) {
+                size++;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the most recent fixes strictly newer than {@code sinceTime}, in
+     * chronological order and packed with {@link #STRIDE} values per fix.
+     *
+     * @param maxCount maximum number of fixes returned, no limit when 0 or less.
+     */
+    synchronized double[] query(double sinceTime, int maxCount) {
+        int capacity = times.length;
+        int limit = maxCount > 0 ? Math.min(maxCount, size) : size;
+
+        // Walks back from the newest fix to find how many are wanted
+        int count = 0;
+        int index = head;
+        while (count < limit) {
+            index = index == 0 ? capacity - 1 : index - 1;
+            if (times[index] <= sinceTime) {
+                break;
+            }
+            count++;
+        }
+
+        double[] history = new double[count * STRIDE];
+        int first = head - count;
+        if (first < 0) {
+            first += capacity;
+        }
+        for (int i = 0; i < count; i++) {
+            int source = (first + i) % capacity;
+            int offset = i * STRIDE;
+            history[offset + LATITUDE] = latitudes[source];
+            history[offset + LONGITUDE] = longitudes[source];
+            history[offset + ACCURACY] = accuracies[source];
+            history[offset + TIME] = times[source];
+        }
+        return history;
+    }
+}
@@ -0,0 +1,122 @@
+package com.lyokone.location;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layout of the locations sent to Flutter. Each fix is stored as
+ * {@link #STRIDE} consecutive doubles of a {@code double[]}, which is sent
+ * as-is with the packed format (a {@code Float64List} on the Dart side) or
+ * converted to the historical map otherwise, see {@link DeltaEncoder} for the
+ * delta format. Missing values are NaN.
+ */
+final class LocationPayload {
+
+    static final int FORMAT_MAP = 0;
+    static final int FORMAT_PACKED = 1;
+    static final int FORMAT_DELTA = 2;
+
+    static final int LATITUDE = 0;
+    static final int LONGITUDE = 1;
+    static final int ACCURACY = 2;
+    static final int ALTITUDE = 3;
+    static final int SPEED = 4;
+    static final int SPEED_ACCURACY = 5;
+    static final int HEADING = 6;
+    static final int TIME = 7;
+    static final int SATELLITES = 8;
+    static final int HDOP = 9;
+    static final int VDOP = 10;
+
+    static final int STRIDE = 11;
+
+    private LocationPayload() {
+    }
+
+    /**
+     * Returns the fixes between {@code start} (inclusive) and {@code end}
+     * (exclusive), without copying when all of them are requested.
+     */
+    static double[] slice(double[] fixes, int start, int end) {
+        if (start == 0 && end * STRIDE == fixes.length) {
+            return fixes;
+        }
+        double[] slice = new double[(end - start) * STRIDE];
+        System.arraycopy(fixes, start * STRIDE, slice, 0, slice.length);
+        return slice;
+    }
+
+    static HashMap<String, Double> toMap(double[] fixes, int index) {
+        int offset = index * STRIDE;
+        HashMap<String, Double> loc = new HashMap<>();
+        loc.put("latitude", fixes[offset + LATITUDE]);
+        loc.put("longitude", fixes[offset + LONGITUDE]);
+        loc.put("accuracy", fixes[offset + ACCURACY]);
+        loc.put("altitude", fixes[offset + ALTITUDE]);
+        putIfKnown(loc, "speed", fixes[offset + SPEED]);
+        putIfKnown(loc, "speed_accuracy", fixes[offset + SPEED_ACCURACY]);
+        putIfKnown(loc, "heading", fixes[offset + HEADING]);
+        loc.put("time", fixes[offset + TIME]);
+        putIfKnown(loc, "satellites", fixes[offset + SATELLITES]);
+        putIfKnown(loc, "hdop", fixes[offset + HDOP]);
+        putIfKnown(loc, "vdop", fixes[offset + VDOP]);
+        return loc;
+    }
+
+    /**
+     * Returns the number of fixes of a payload, in any format, or targeted to
+     * subscriptions.
+     */
+    static int fixCount(Object payload) {
+        if (payload instanceof double[]) {
+            return ((double[]) payload).length / STRIDE;
+        }
+        if (payload instanceof byte[]) {
+            return DeltaEncoder.count((byte[]) payload);
+        }
+        if (payload instanceof List) {
+            return ((List<?>) payload).size();
+        }
+        if (payload instanceof Map && ((Map<?, ?>) payload).containsKey("payload")) {
+            return fixCount(((Map<?, ?>) payload).get("payload"));
+        }
+        // A single location
+        return 1;
+    }
+
+    /**
+     * Approximate size in bytes of a payload once written by the standard
+     * message codec, ignoring the alignment padding.
+     */
+    static int encodedSize(Object payload) {
+        if (payload instanceof double[]) {
+            return 2 + ((double[]) payload).length * 8;
+        }
+        if (payload instanceof byte[]) {
+            return 2 + ((byte[]) payload).length;
+        }
+        int size = 2;
+        if (payload instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) payload).entrySet()) {
+                size += 2 + entry.getKey().toString().length() + encodedSize(entry.getValue());
+            }
+        } else if (payload instanceof List) {
+            for (Object item : (List<?>) payload) {
+                size += encodedSize(item);
+            }
+        } else if (payload instanceof int[]) {
+            size += ((int[]) payload).length * 4;
+        } else {
+            // A double
+            size += 7;
+        }
+        return size;
+    }
+
+    private static void putIfKnown(HashMap<String, Double> loc, String key, double value) {
+        if (!Double.isNaN(value)) {
+            loc.put(key, value);
+        }
+    }
+}
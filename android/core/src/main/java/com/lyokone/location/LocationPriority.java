@@ -0,0 +1,28 @@
+package com.lyokone.location;
+
+/**
+ * Priorities of the provider requests, with the values of the
+ * {@code LocationRequest} constants, and their mapping from the
+ * {@code LocationAccuracy} of the Flutter side.
+ */
+final class LocationPriority {
+
+    static final int HIGH_ACCURACY = 100;
+    static final int BALANCED_POWER_ACCURACY = 102;
+    static final int LOW_POWER = 104;
+    static final int NO_POWER = 105;
+
+    // Indexed by LocationAccuracy: POWERSAVE, LOW, BALANCED, HIGH, NAVIGATION
+    private static final int[] FLUTTER_ACCURACIES = { NO_POWER, LOW_POWER, BALANCED_POWER_ACCURACY, HIGH_ACCURACY,
+            HIGH_ACCURACY };
+
+    private LocationPriority() {
+    }
+
+    static int fromFlutterAccuracy(int accuracy) {
+        if (accuracy < 0 || accuracy >= FLUTTER_ACCURACIES.length) {
+            throw new IllegalArgumentException("Unknown accuracy: " + accuracy);
+        }
+        return FLUTTER_ACCURACIES[accuracy];
+    }
+}
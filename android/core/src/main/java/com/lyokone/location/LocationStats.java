@@ -0,0 +1,145 @@
+package com.lyokone.location;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runtime counters and histograms of the plugin.
+ * <p/>
+ * Recording is lock free and never allocates, so it can stay enabled on the
+ * hot path: counters are atomic longs and histograms count the values in
+ * power of two buckets. Percentiles are therefore approximate, reported as
+ * the upper bound of their bucket.
+ */
+final class LocationStats {
+
+    // Counters
+    static final int FIXES_RECEIVED = 0;
+    static final int FIXES_EMITTED = 1;
+    // Dropped by the Kalman filter, the simplification or the subscriptions
+    static final int FIXES_DROPPED = 2;
+    // One-shot requests answered by another request or by a cached fix
+    static final int REQUESTS_COALESCED = 3;
+    static final int REQUESTS_CACHED = 4;
+    static final int NMEA_SENTENCES = 5;
+    static final int SETTINGS_CHECKS = 6;
+    static final int SETTINGS_CHECKS_SKIPPED = 7;
+    // Dropped by the delivery policy of the stream
+    static final int FIXES_CONFLATED = 8;
+    private static final int COUNTER_COUNT = 9;
+
+    private static final String[] COUNTER_NAMES = { "fixesReceived", "fixesEmitted", "fixesDropped",
+            "requestsCoalesced", "requestsCached", "nmeaSentences", "settingsChecks", "settingsChecksSkipped",
+            "fixesConflated" };
+
+    // Histograms
+    static final int FIX_AGE = 0;
+    static final int PROCESSING_TIME = 1;
+    static final int SERIALIZATION_TIME = 2;
+    static final int PAYLOAD_SIZE = 3;
+    static final int SETTINGS_CHECK_TIME = 4;
+    private static final int HISTOGRAM_COUNT = 5;
+
+    // Fix age and settings check time in milliseconds, processing and
+    // serialization time in microseconds, payload size in bytes
+    private static final String[] HISTOGRAM_NAMES = { "fixAge", "processingTime", "serializationTime",
+            "payloadSize", "settingsCheckTime" };
+
+    // Bucket i counts the values in [2^(i-1), 2^i), bucket 0 the values below 1
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_COUNT);
+
+    // Count, sum and max of each histogram, followed by its buckets
+    private static final int HISTOGRAM_STRIDE = 3 + BUCKETS;
+    private final AtomicLongArray histograms = new AtomicLongArray(HISTOGRAM_COUNT * HISTOGRAM_STRIDE);
+
+    private volatile long startTime = System.currentTimeMillis();
+
+    void increment(int counter) {
+        counters.incrementAndGet(counter);
+    }
+
+    void add(int counter, long value) {
+        counters.addAndGet(counter, value);
+    }
+
+    void record(int histogram, long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int offset = histogram * HISTOGRAM_STRIDE;
+        histograms.incrementAndGet(offset);
+        histograms.addAndGet(offset + 1, value);
+        long max;
+        while ((max = histograms.get(offset + 2)) < value && !histograms.compareAndSet(offset + 2, max, value)) {
+            // Retried until this value or a larger one is stored
+        }
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+        histograms.incrementAndGet(offset + 3 + bucket);
+    }
+
+    void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for (int i = 0; i < histograms.length(); i++) {
+            histograms.set(i, 0);
+        }
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the counters and the summary of the histograms since the last
+     * reset, sent as is to Flutter.
+     */
+    HashMap<String, Object> snapshot() {
+        HashMap<String, Object> snapshot = new HashMap<>();
+        long elapsed = System.currentTimeMillis() - startTime;
+        snapshot.put("elapsed", elapsed);
+
+        HashMap<String, Long> counterValues = new HashMap<>();
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            counterValues.put(COUNTER_NAMES[i], counters.get(i));
+        }
+        snapshot.put("counters", counterValues);
+        snapshot.put("nmeaSentencesPerSecond", elapsed > 0 ? counters.get(NMEA_SENTENCES) * 1000.0 / elapsed : 0.0);
+
+        HashMap<String, HashMap<String, Object>> histogramValues = new HashMap<>();
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            histogramValues.put(HISTOGRAM_NAMES[i], summarize(i));
+        }
+        snapshot.put("histograms", histogramValues);
+        return snapshot;
+    }
+
+    private HashMap<String, Object> summarize(int histogram) {
+        int offset = histogram * HISTOGRAM_STRIDE;
+        long count = histograms.get(offset);
+        HashMap<String, Object> summary = new HashMap<>();
+        summary.put("count", count);
+        summary.put("mean", count > 0 ? (double) histograms.get(offset + 1) / count : 0.0);
+        summary.put("max", histograms.get(offset + 2));
+        summary.put("p50", percentile(offset, count, 0.5));
+        summary.put("p90", percentile(offset, count, 0.9));
+        summary.put("p99", percentile(offset, count, 0.99));
+        return summary;
+    }
+
+    private long percentile(int offset, long count, double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histograms.get(offset + 3 + bucket);
+            if (seen >= rank) {
+                // Upper bound of the bucket, capped by the largest value seen
+                long bound = bucket == 0 ? 0 : (1L << bucket) - 1;
+                return Math.min(bound, histograms.get(offset + 2));
+            }
+        }
+        return histograms.get(offset + 2);
+    }
+}
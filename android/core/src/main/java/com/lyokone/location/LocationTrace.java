@@ -0,0 +1,416 @@
+package com.lyokone.location;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Recorded trace of fixes and NMEA sentences, replayed in place of the device.
+ * <p/>
+ * A trace is read from a GPX file (track, route or way points), a file of
+ * NMEA sentences (a fix per valid RMC sentence) or a CSV file whose header
+ * names the columns with the keys of the location map (latitude, longitude,
+ * accuracy, altitude, speed, speed_accuracy, heading and time, as milliseconds
+ * since the epoch or ISO 8601), every row having a latitude and a longitude.
+ * External entities of GPX files are never read. Records are kept in their
+ * order, fixes packed, see {@link LocationPayload}. Missing accuracies are
+ * estimated from the HDOP, missing speeds and headings from the previous fix.
+ */
+final class LocationTrace {
+
+    static final int FORMAT_GPX = 0;
+    static final int FORMAT_NMEA = 1;
+    static final int FORMAT_CSV = 2;
+
+    // User equivalent range error, to estimate an accuracy from the HDOP
+    private static final double UERE = 5;
+    private static final double DEFAULT_ACCURACY = 10;
+
+    private double[] fixes = new double[64 * LocationPayload.STRIDE];
+    private int fixCount;
+
+    // Records in order, the index of a fix or -1 for a sentence
+    private int[] recordFixes = new int[64];
+    private double[] recordTimes = new double[64];
+    private final List<String> sentences = new ArrayList<>();
+    private int[] recordSentences = new int[64];
+    private int size;
+
+    private LocationTrace() {
+    }
+
+    static LocationTrace read(Reader reader, int format) throws IOException {
+        if (format < FORMAT_GPX || format > FORMAT_CSV) {
+            throw new IllegalArgumentException("Unknown trace format: " + format);
+        }
+        LocationTrace trace = new LocationTrace();
+        try {
+            if (format == FORMAT_GPX) {
+                trace.readGpx(reader);
+            } else if (format == FORMAT_NMEA) {
+                trace.readNmea(reader);
+            } else {
+                trace.readCsv(reader);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | NullPointerException e) {
+            // Malformed numbers, dates or missing attributes
+            throw new IOException("Invalid trace: " + e.getMessage());
+        }
+        if (trace.fixCount == 0) {
+            throw new IOException("The trace has no location");
+        }
+        trace.completeFixes();
+        return trace;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getFixCount() {
+        return fixCount;
+    }
+
+    /**
+     * Time of a record in milliseconds since the epoch, the time of the fix of
+     * its epoch for a sentence.
+     */
+    double getTime(int record) {
+        return recordTimes[record];
+    }
+
+    boolean isFix(int record) {
+        return recordFixes[record] >= 0;
+    }
+
+    String getSentence(int record) {
+        return sentences.get(recordSentences[record]);
+    }
+
+    /**
+     * Returns the packed fixes and the offset of the fix of a record in them.
+     */
+    double[] getFixes() {
+        return fixes;
+    }
+
+    int getFixOffset(int record) {
+        return recordFixes[record] * LocationPayload.STRIDE;
+    }
+
+    private int addFix() {
+        if ((fixCount + 1) * LocationPayload.STRIDE > fixes.length) {
+            fixes = Arrays.copyOf(fixes, fixes.length * 2);
+        }
+        int offset = fixCount * LocationPayload.STRIDE;
+        Arrays.fill(fixes, offset, offset + LocationPayload.STRIDE, Double.NaN);
+        addRecord(fixCount, -1, Double.NaN);
+        fixCount++;
+        return offset;
+    }
+
+    private void addSentence(String sentence) {
+        addRecord(-1, sentences.size(), Double.NaN);
+        sentences.add(sentence);
+    }
+
+    private void addRecord(int fix, int sentence, double time) {
+        if (size == recordFixes.length) {
+            int capacity = size * 2;
+            recordFixes = Arrays.copyOf(recordFixes, capacity);
+            recordTimes = Arrays.copyOf(recordTimes, capacity);
+            recordSentences = Arrays.copyOf(recordSentences, capacity);
+        }
+        recordFixes[size] = fix;
+        recordSentences[size] = sentence;
+        recordTimes[size] = time;
+        size++;
+    }
+
+    /**
+     * Estimates the missing values, and gives the sentences the time of the
+     * next fix.
+     */
+    private void completeFixes() throws IOException {
+        double[] f = fixes;
+        for (int i = 0; i < fixCount; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            if (Double.isNaN(f[offset + LocationPayload.TIME])) {
+                throw new IOException("A location of the trace has no time");
+            }
+            if (Double.isNaN(f[offset + LocationPayload.ACCURACY])) {
+                double hdop = f[offset + LocationPayload.HDOP];
+                f[offset + LocationPayload.ACCURACY] = Double.isNaN(hdop) ? DEFAULT_ACCURACY : hdop * UERE;
+            }
+            if (i > 0 && (Double.isNaN(f[offset + LocationPayload.SPEED])
+                    || Double.isNaN(f[offset + LocationPayload.HEADING]))) {
+                estimateMotion(f, offset - LocationPayload.STRIDE, offset);
+            }
+        }
+
+        // Sentences after the last fix get its time
+        double time = f[(fixCount - 1) * LocationPayload.STRIDE + LocationPayload.TIME];
+        for (int record = size - 1; record >= 0; record--) {
+            if (recordFixes[record] >= 0) {
+                time = f[recordFixes[record] * LocationPayload.STRIDE + LocationPayload.TIME];
+            }
+            recordTimes[record] = time;
+        }
+    }
+
+    private static void estimateMotion(double[] f, int previous, int offset) {
+        double lat1 = Math.toRadians(f[previous + LocationPayload.LATITUDE]);
+        double lat2 = Math.toRadians(f[offset + LocationPayload.LATITUDE]);
+        double deltaLon = Math
+                .toRadians(f[offset + LocationPayload.LONGITUDE] - f[previous + LocationPayload.LONGITUDE]);
+        if (Double.isNaN(f[offset + LocationPayload.SPEED])) {
+            double elapsed = (f[offset + LocationPayload.TIME] - f[previous + LocationPayload.TIME]) / 1000;
+            double step = GeoMath.distance(f[previous + LocationPayload.LATITUDE],
+                    f[previous + LocationPayload.LONGITUDE], f[offset + LocationPayload.LATITUDE],
+                    f[offset + LocationPayload.LONGITUDE]);
+            f[offset + LocationPayload.SPEED] = elapsed > 0 ? step / elapsed : 0;
+        }
+        if (Double.isNaN(f[offset + LocationPayload.HEADING])) {
+            double y = Math.sin(deltaLon) * Math.cos(lat2);
+            double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(deltaLon);
+            f[offset + LocationPayload.HEADING] = (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+        }
+    }
+
+    private void readNmea(Reader reader) throws IOException {
+        NmeaParser parser = new NmeaParser();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            addSentence(line);
+            if (!parser.parse(line) || line.length() < 6 || !line.startsWith("RMC", 3) || !parser.isFixValid()
+                    || Double.isNaN(parser.getLatitude()) || Double.isNaN(parser.getTime())) {
+                continue;
+            }
+            int offset = addFix();
+            fixes[offset + LocationPayload.LATITUDE] = parser.getLatitude();
+            fixes[offset + LocationPayload.LONGITUDE] = parser.getLongitude();
+            fixes[offset + LocationPayload.ALTITUDE] = parser.getMslAltitude();
+            fixes[offset + LocationPayload.SPEED] = parser.getSpeed();
+            fixes[offset + LocationPayload.HEADING] = parser.getCourse();
+            fixes[offset + LocationPayload.TIME] = parser.getTime();
+            fixes[offset + LocationPayload.HDOP] = parser.getHdop();
+        }
+    }
+
+    private void readCsv(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String line = lines.readLine();
+        int lineNumber = 1;
+        while (line != null && (line.trim().isEmpty() || line.startsWith("#"))) {
+            line = lines.readLine();
+            lineNumber++;
+        }
+        if (line == null) {
+            throw new IOException("The trace has no header");
+        }
+        String[] header = line.split(",");
+        int[] columns = new int[header.length];
+        for (int i = 0; i < header.length; i++) {
+            columns[i] = columnIndex(header[i].trim().toLowerCase());
+        }
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] values = line.split(",", -1);
+            int offset = addFix();
+            for (int i = 0; i < columns.length && i < values.length; i++) {
+                String value = values[i].trim();
+                if (columns[i] < 0 || value.isEmpty()) {
+                    continue;
+                }
+                fixes[offset + columns[i]] = columns[i] == LocationPayload.TIME ? parseTime(value)
+                        : Double.parseDouble(value);
+            }
+            if (Double.isNaN(fixes[offset + LocationPayload.LATITUDE])
+                    || Double.isNaN(fixes[offset + LocationPayload.LONGITUDE])) {
+                throw new IOException("Invalid trace: line " + lineNumber + " has no latitude or longitude");
+            }
+        }
+    }
+
+    private static int columnIndex(String name) {
+        switch (name) {
+        case "latitude":
+            return LocationPayload.LATITUDE;
+        case "longitude":
+            return LocationPayload.LONGITUDE;
+        case "accuracy":
+            return LocationPayload.ACCURACY;
+        case "altitude":
+            return LocationPayload.ALTITUDE;
+        case "speed":
+            return LocationPayload.SPEED;
+        case "speed_accuracy":
+            return LocationPayload.SPEED_ACCURACY;
+        case "heading":
+            return LocationPayload.HEADING;
+        case "time":
+            return LocationPayload.TIME;
+        case "satellites":
+            return LocationPayload.SATELLITES;
+        case "hdop":
+            return LocationPayload.HDOP;
+        case "vdop":
+            return LocationPayload.VDOP;
+        default:
+            return -1;
+        }
+    }
+
+    private void readGpx(Reader reader) throws IOException {
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            // External entities could read local files or the network
+            setFeature(factory, "http://apache.org/xml/features/disallow-doctype-decl", true);
+            setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+            setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+            setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.newSAXParser().parse(new InputSource(reader), new GpxHandler());
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid GPX trace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets a feature of the parser when it supports it, the handler resolving
+     * the external entities to nothing otherwise.
+     */
+    private static void setFeature(SAXParserFactory factory, String name, boolean value)
+            throws ParserConfigurationException {
+        try {
+            factory.setFeature(name, value);
+        } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+            // Not supported by this parser (Android's)
+        }
+    }
+
+    /**
+     * Reads the points of a GPX document, whatever its version, the speed and
+     * course of GPX 1.0 and of the usual extensions included.
+     */
+    private class GpxHandler extends DefaultHandler {
+
+        private final StringBuilder text = new StringBuilder();
+        private int offset = -1;
+
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+            return new InputSource(new StringReader(""));
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            text.setLength(0);
+            String name = localName.isEmpty() ? qName : localName;
+            if (name.equals("trkpt") || name.equals("rtept") || name.equals("wpt")) {
+                offset = addFix();
+                fixes[offset + LocationPayload.LATITUDE] = Double.parseDouble(attributes.getValue("lat"));
+                fixes[offset + LocationPayload.LONGITUDE] = Double.parseDouble(attributes.getValue("lon"));
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            String name = localName.isEmpty() ? qName : localName;
+            if (name.equals("trkpt") || name.equals("rtept") || name.equals("wpt")) {
+                offset = -1;
+                return;
+            }
+            if (offset < 0) {
+                return;
+            }
+            String value = text.toString().trim();
+            if (value.isEmpty()) {
+                return;
+            }
+            switch (name) {
+            case "ele":
+                fixes[offset + LocationPayload.ALTITUDE] = Double.parseDouble(value);
+                break;
+            case "time":
+                fixes[offset + LocationPayload.TIME] = parseTime(value);
+                break;
+            case "speed":
+                fixes[offset + LocationPayload.SPEED] = Double.parseDouble(value);
+                break;
+            case "course":
+                fixes[offset + LocationPayload.HEADING] = Double.parseDouble(value);
+                break;
+            case "sat":
+                fixes[offset + LocationPayload.SATELLITES] = Double.parseDouble(value);
+                break;
+            case "hdop":
+                fixes[offset + LocationPayload.HDOP] = Double.parseDouble(value);
+                break;
+            case "vdop":
+                fixes[offset + LocationPayload.VDOP] = Double.parseDouble(value);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Parses a time in milliseconds since the epoch, or an ISO 8601 date and
+     * time (yyyy-mm-ddThh:mm:ss[.sss][Z|+hh:mm]).
+     */
+    static double parseTime(String value) {
+        if (value.length() < 19 || value.charAt(4) != '-') {
+            return Double.parseDouble(value);
+        }
+        int year = Integer.parseInt(value.substring(0, 4));
+        int month = Integer.parseInt(value.substring(5, 7));
+        int day = Integer.parseInt(value.substring(8, 10));
+        int hours = Integer.parseInt(value.substring(11, 13));
+        int minutes = Integer.parseInt(value.substring(14, 16));
+        int end = 19;
+        while (end < value.length() && (value.charAt(end) == '.' || Character.isDigit(value.charAt(end)))) {
+            end++;
+        }
+        double seconds = Double.parseDouble(value.substring(17, end));
+        int offsetMinutes = 0;
+        if (end < value.length() && (value.charAt(end) == '+' || value.charAt(end) == '-')) {
+            String zone = value.substring(end + 1).replace(":", "");
+            offsetMinutes = Integer.parseInt(zone.substring(0, 2)) * 60
+                    + (zone.length() >= 4 ? Integer.parseInt(zone.substring(2, 4)) : 0);
+            if (value.charAt(end) == '+') {
+                offsetMinutes = -offsetMinutes;
+            }
+        }
+        return NmeaParser.epochMillis(year, month, day, hours * 3600 + minutes * 60 + seconds)
+                + offsetMinutes * 60000.0;
+    }
+}
@@ -0,0 +1,146 @@
+package com.lyokone.location;
+
+/**
+ * Detects whether the device is stationary, walking or driving from the speed
+ * and the spread of the positions of the incoming fixes.
+ * <p/>
+ * The speed and the spread are exponential moving averages, updated in
+ * constant time. To avoid oscillating between two states, the thresholds to
+ * leave a state are lower than the ones to enter the next one, and a new
+ * state must be observed on several consecutive fixes before being adopted.
+ */
+final class MotionStateDetector {
+
+    static final int STATE_STATIONARY = 0;
+    static final int STATE_WALKING = 1;
+    static final int STATE_DRIVING = 2;
+
+    // Thresholds in m/s to enter and leave the states
+    private static final double WALKING_ENTER_SPEED = 0.8;
+    private static final double WALKING_LEAVE_SPEED = 0.4;
+    private static final double DRIVING_ENTER_SPEED = 4;
+    private static final double DRIVING_LEAVE_SPEED = 2.5;
+
+    // Spread of the positions in meters below which the device doesn't move,
+    // whatever the speed it reports
+    private static final double STATIONARY_SPREAD = 10;
+
+    private static final double SPEED_SMOOTHING = 0.3;
+    private static final double POSITION_SMOOTHING = 0.1;
+    private static final int CONFIRMATIONS = 3;
+
+    private int state = STATE_WALKING;
+    private int candidate = STATE_WALKING;
+    private int candidateCount;
+
+    private boolean initialized;
+    private double lastLatitude;
+    private double lastLongitude;
+    private double lastTime;
+
+    private double speed;
+    // Moving average of the positions, in meters from the last fix, and of the
+    // squared distance between the fixes and this average
+    private double meanNorth;
+    private double meanEast;
+    private double spread;
+    private double metersPerDegreeLon;
+
+    int getState() {
+        return state;
+    }
+
+    /**
+     * Updates the state with the fixes of a packed payload, see
+     * {@link LocationPayload}.
+     *
+     * @return whether the state changed.
+     */
+    boolean update(double[] fixes, int count) {
+        int previous = state;
+        for (int i = 0; i < count; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            update(fixes[offset + LocationPayload.LATITUDE], fixes[offset + LocationPayload.LONGITUDE],
+                    fixes[offset + LocationPayload.SPEED], fixes[offset + LocationPayload.TIME]);
+        }
+        return state != previous;
+    }
+
+    void update(double latitude, double longitude, double reportedSpeed, double time) {
+        if (!initialized) {
+            initialized = true;
+            metersPerDegreeLon = GeoMath.metersPerDegreeLon(latitude);
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+            lastTime = time;
+            speed = Double.isNaN(reportedSpeed) ? 0 : reportedSpeed;
+            meanNorth = 0;
+            meanEast = 0;
+            spread = STATIONARY_SPREAD * STATIONARY_SPREAD;
+            return;
+        }
+
+        double north = (latitude - lastLatitude) * GeoMath.METERS_PER_DEGREE_LAT;
+        double east = (longitude - lastLongitude) * metersPerDegreeLon;
+        double elapsed = (time - lastTime) / 1000;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastTime = time;
+
+        // Positions are accumulated relative to the previous fix, the mean is
+        // moved accordingly
+        meanNorth -= north;
+        meanEast -= east;
+        meanNorth -= POSITION_SMOOTHING * meanNorth;
+        meanEast -= POSITION_SMOOTHING * meanEast;
+        spread += POSITION_SMOOTHING * (meanNorth * meanNorth + meanEast * meanEast - spread);
+
+        double measuredSpeed = reportedSpeed;
+        if (Double.isNaN(measuredSpeed) || measuredSpeed <= 0) {
+            measuredSpeed = elapsed > 0 ? Math.sqrt(north * north + east * east) / elapsed : speed;
+        }
+        speed += SPEED_SMOOTHING * (measuredSpeed - speed);
+
+        int observed = classify();
+        if (observed == state) {
+            candidateCount = 0;
+        } else if (observed == candidate) {
+            if (++candidateCount >= CONFIRMATIONS) {
+                state = observed;
+                candidateCount = 0;
+            }
+        } else {
+            candidate = observed;
+            candidateCount = 1;
+        }
+    }
+
+    void reset() {
+        initialized = false;
+        state = STATE_WALKING;
+        candidate = STATE_WALKING;
+        candidateCount = 0;
+    }
+
+    private int classify() {
+        boolean stillSpread = spread < STATIONARY_SPREAD * STATIONARY_SPREAD;
+        switch (state) {
+        case STATE_STATIONARY:
+            if (speed > DRIVING_ENTER_SPEED) {
+                return STATE_DRIVING;
+            }
+            return speed > WALKING_ENTER_SPEED && !stillSpread ? STATE_WALKING : STATE_STATIONARY;
+        case STATE_DRIVING:
+            if (speed > DRIVING_LEAVE_SPEED) {
+                return STATE_DRIVING;
+            }
+            return speed < WALKING_LEAVE_SPEED ? STATE_STATIONARY : STATE_WALKING;
+        default:
+            if (speed > DRIVING_ENTER_SPEED) {
+                return STATE_DRIVING;
+            }
+            return speed < WALKING_LEAVE_SPEED || (stillSpread && speed < WALKING_ENTER_SPEED) ? STATE_STATIONARY
+                    : STATE_WALKING;
+        }
+    }
+}
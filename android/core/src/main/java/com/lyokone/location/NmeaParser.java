@@ -0,0 +1,437 @@
+package com.lyokone.location;
+
+/**
+ * Parser of the NMEA sentences received from the GNSS chip. Sentences are
+ * scanned in place, without allocation, and only the ones with a valid
+ * checksum are used. GGA, GSA, GSV and RMC sentences are understood from every
+ * talker ($GP, $GN, $GL, $GA, $GB...), the others are ignored.
+ * <p/>
+ * Detailed description of the NMEA sentences here: http://aprs.gids.nl/nmea/
+ */
+final class NmeaParser {
+
+    private static final int MAX_FIELDS = 32;
+
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+    // Talkers whose satellites in view are summed, the combined talker GN never
+    // sends GSV sentences.
+    private static final int TALKER_COUNT = 6;
+
+    private static final double KNOTS_TO_METERS_PER_SECOND = 1852.0 / 3600;
+
+    // Start of each field of the current sentence, the end of a field being the
+    // start of the next one minus the separator.
+    private final int[] fieldStarts = new int[MAX_FIELDS + 1];
+    private int fieldCount;
+
+    private final int[] satellitesInViewByTalker = new int[TALKER_COUNT];
+
+    private double mslAltitude = Double.NaN;
+    private int satellitesUsed = -1;
+    private double hdop = Double.NaN;
+    private double vdop = Double.NaN;
+    private double pdop = Double.NaN;
+    private boolean fixValid;
+
+    // Position of the last RMC sentence
+    private double latitude = Double.NaN;
+    private double longitude = Double.NaN;
+    private double speed = Double.NaN;
+    private double course = Double.NaN;
+    private double time = Double.NaN;
+
+    /**
+     * Parses a sentence and updates the values it contains.
+     *
+     * @return whether the sentence was understood and its checksum is valid.
+     */
+    boolean parse(CharSequence sentence) {
+        int end = checksumEnd(sentence);
+        if (end < 0 || !splitFields(sentence, end) || fieldCount < 1) {
+            return false;
+        }
+        // Address field: $ + 2 characters of talker + 3 characters of type
+        if (fieldStarts[1] - 1 - fieldStarts[0] != 6) {
+            return false;
+        }
+        char t1 = sentence.charAt(1);
+        char t2 = sentence.charAt(2);
+        char c1 = sentence.charAt(3);
+        char c2 = sentence.charAt(4);
+        char c3 = sentence.charAt(5);
+
+        if (c1 == 'G' && c2 == 'G' && c3 == 'A') {
+            return parseGga(sentence);
+        } else if (c1 == 'G' && c2 == 'S' && c3 == 'A') {
+            return parseGsa(sentence);
+        } else if (c1 == 'G' && c2 == 'S' && c3 == 'V') {
+            return parseGsv(sentence, talkerIndex(t1, t2));
+        } else if (c1 == 'R' && c2 == 'M' && c3 == 'C') {
+            return parseRmc(sentence);
+        }
+        return false;
+    }
+
+    /**
+     * Altitude above the mean sea level of the last fix, in meters, NaN when
+     * unknown.
+     */
+    double getMslAltitude() {
+        return mslAltitude;
+    }
+
+    /**
+     * Number of satellites used by the last fix, -1 when unknown.
+     */
+    int getSatellitesUsed() {
+        return satellitesUsed;
+    }
+
+    /**
+     * Number of satellites in view, summed over every constellation.
+     */
+    int getSatellitesInView() {
+        int total = 0;
+        for (int count : satellitesInViewByTalker) {
+            total += count;
+        }
+        return total;
+    }
+
+    double getHdop() {
+        return hdop;
+    }
+
+    double getVdop() {
+        return vdop;
+    }
+
+    double getPdop() {
+        return pdop;
+    }
+
+    /**
+     * Whether the last RMC sentence reported a valid fix.
+     */
+    boolean isFixValid() {
+        return fixValid;
+    }
+
+    /**
+     * Latitude of the last RMC sentence, in degrees, NaN when unknown.
+     */
+    double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Longitude of the last RMC sentence, in degrees, NaN when unknown.
+     */
+    double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Speed over ground of the last RMC sentence, in m/s, NaN when unknown.
+     */
+    double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Course over ground of the last RMC sentence, in degrees, NaN when unknown.
+     */
+    double getCourse() {
+        return course;
+    }
+
+    /**
+     * UTC time of the last RMC sentence, in milliseconds since the epoch, NaN
+     * when unknown.
+     */
+    double getTime() {
+        return time;
+    }
+
+    void reset() {
+        latitude = Double.NaN;
+        longitude = Double.NaN;
+        speed = Double.NaN;
+        course = Double.NaN;
+        time = Double.NaN;
+        mslAltitude = Double.NaN;
+        satellitesUsed = -1;
+        hdop = Double.NaN;
+        vdop = Double.NaN;
+        pdop = Double.NaN;
+        fixValid = false;
+        for (int i = 0; i < TALKER_COUNT; i++) {
+            satellitesInViewByTalker[i] = 0;
+        }
+    }
+
+    // $--GGA,time,lat,N,lon,E,quality,satellites,hdop,altitude,M,separation,M,age,station*hh
+    private boolean parseGga(CharSequence s) {
+        if (fieldCount < 10) {
+            return false;
+        }
+        int quality = parseInt(s, 6);
+        if (quality <= 0) {
+            // No fix, the altitude is not relevant anymore
+            mslAltitude = Double.NaN;
+            satellitesUsed = -1;
+            return true;
+        }
+        satellitesUsed = parseInt(s, 7);
+        double value = parseDouble(s, 8);
+        if (!Double.isNaN(value)) {
+            hdop = value;
+        }
+        mslAltitude = parseDouble(s, 9);
+        return true;
+    }
+
+    // $--GSA,mode,fixType,12 x prn,pdop,hdop,vdop[,systemId]*hh
+    private boolean parseGsa(CharSequence s) {
+        if (fieldCount < 18) {
+            return false;
+        }
+        if (parseInt(s, 2) <= 1) {
+            // Fix not available
+            return true;
+        }
+        pdop = parseDouble(s, 15);
+        hdop = parseDouble(s, 16);
+        vdop = parseDouble(s, 17);
+        return true;
+    }
+
+    // $--GSV,messages,messageNumber,satellitesInView,[prn,elevation,azimuth,snr]*hh
+    private boolean parseGsv(CharSequence s, int talker) {
+        if (fieldCount < 4) {
+            return false;
+        }
+        if (talker >= 0 && parseInt(s, 2) == 1) {
+            int inView = parseInt(s, 3);
+            satellitesInViewByTalker[talker] = inView < 0 ? 0 : inView;
+        }
+        return true;
+    }
+
+    // $--RMC,time,status,lat,N,lon,E,speed,course,date,variation,E[,mode]*hh
+    private boolean parseRmc(CharSequence s) {
+        if (fieldCount < 3) {
+            return false;
+        }
+        int start = fieldStarts[2];
+        fixValid = fieldEnd(2) - start == 1 && s.charAt(start) == 'A';
+        if (!fixValid || fieldCount < 10) {
+            return true;
+        }
+        latitude = parseCoordinate(s, 3);
+        longitude = parseCoordinate(s, 5);
+        speed = parseDouble(s, 7) * KNOTS_TO_METERS_PER_SECOND;
+        course = parseDouble(s, 8);
+
+        double timeOfDay = parseDouble(s, 1);
+        int date = parseInt(s, 9);
+        if (Double.isNaN(timeOfDay) || date < 0) {
+            time = Double.NaN;
+        } else {
+            int hours = (int) (timeOfDay / 10000);
+            int minutes = (int) (timeOfDay / 100) % 100;
+            double seconds = timeOfDay - hours * 10000 - minutes * 100;
+            int year = date % 100;
+            time = epochMillis(year < 80 ? 2000 + year : 1900 + year, date / 100 % 100, date / 10000,
+                    hours * 3600 + minutes * 60 + seconds);
+        }
+        return true;
+    }
+
+    /**
+     * Parses a ddmm.mmmm coordinate followed by its hemisphere field, NaN when
+     * empty or invalid.
+     */
+    private double parseCoordinate(CharSequence s, int field) {
+        double value = parseDouble(s, field);
+        if (Double.isNaN(value) || field + 1 >= fieldCount || fieldEnd(field + 1) - fieldStarts[field + 1] != 1) {
+            return Double.NaN;
+        }
+        double degrees = Math.floor(value / 100);
+        double coordinate = degrees + (value - degrees * 100) / 60;
+        char hemisphere = s.charAt(fieldStarts[field + 1]);
+        return hemisphere == 'S' || hemisphere == 'W' ? -coordinate : coordinate;
+    }
+
+    /**
+     * Milliseconds since the epoch of a UTC date and time, without allocation.
+     */
+    static double epochMillis(int year, int month, int day, double secondsOfDay) {
+        // Days from the civil date, March based years
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return days * 86400000.0 + secondsOfDay * 1000;
+    }
+
+    private static int talkerIndex(char t1, char t2) {
+        if (t1 == 'G') {
+            switch (t2) {
+            case 'P':
+                return 0; // GPS
+            case 'L':
+                return 1; // GLONASS
+            case 'A':
+                return 2; // Galileo
+            case 'B':
+                return 3; // BeiDou
+            case 'Q':
+                return 4; // QZSS
+            case 'I':
+                return 5; // NavIC
+            default:
+                return -1;
+            }
+        } else if (t1 == 'B' && t2 == 'D') {
+            return 3; // BeiDou, legacy talker
+        } else if (t1 == 'Q' && t2 == 'Z') {
+            return 4; // QZSS, legacy talker
+        }
+        return -1;
+    }
+
+    /**
+     * Verifies the checksum of the sentence.
+     *
+     * @return the index of the '*' preceding the checksum, -1 if the sentence is
+     *         malformed or its checksum is wrong.
+     */
+    private static int checksumEnd(CharSequence s) {
+        int length = s.length();
+        if (length < 10 || s.charAt(0) != '$') {
+            return -1;
+        }
+        int checksum = 0;
+        for (int i = 1; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == '*') {
+                if (i + 2 >= length) {
+                    return -1;
+                }
+                int high = hexValue(s.charAt(i + 1));
+                int low = hexValue(s.charAt(i + 2));
+                if (high < 0 || low < 0 || ((high << 4) | low) != checksum) {
+                    return -1;
+                }
+                return i;
+            }
+            checksum ^= c;
+        }
+        return -1;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private boolean splitFields(CharSequence s, int end) {
+        fieldCount = 0;
+        fieldStarts[0] = 0;
+        for (int i = 0; i < end; i++) {
+            if (s.charAt(i) == ',') {
+                if (fieldCount == MAX_FIELDS - 1) {
+                    return false;
+                }
+                fieldStarts[++fieldCount] = i + 1;
+            }
+        }
+        // Sentinel so that the end of the last field is computed as the others
+        fieldStarts[++fieldCount] = end + 1;
+        return true;
+    }
+
+    private int fieldEnd(int field) {
+        return fieldStarts[field + 1] - 1;
+    }
+
+    /**
+     * Parses a non negative integer field, -1 when empty or invalid.
+     */
+    private int parseInt(CharSequence s, int field) {
+        if (field >= fieldCount) {
+            return -1;
+        }
+        int start = fieldStarts[field];
+        int end = fieldEnd(field);
+        if (start == end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses a decimal field, NaN when empty or invalid.
+     */
+    private double parseDouble(CharSequence s, int field) {
+        if (field >= fieldCount) {
+            return Double.NaN;
+        }
+        int start = fieldStarts[field];
+        int end = fieldEnd(field);
+        if (start == end) {
+            return Double.NaN;
+        }
+        boolean negative = false;
+        if (s.charAt(start) == '-') {
+            negative = true;
+            start++;
+        }
+        long mantissa = 0;
+        int decimals = -1;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (decimals >= 0) {
+                        decimals++;
+                    }
+                } else if (decimals < 0) {
+                    // Integer part too long to be a valid NMEA value
+                    return Double.NaN;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        double value = decimals > 0 ? mantissa / POW10[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+}
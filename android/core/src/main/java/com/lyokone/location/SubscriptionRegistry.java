@@ -0,0 +1,141 @@
+package com.lyokone.location;
+
+import java.util.Arrays;
+
+/**
+ * Location subscriptions sharing a single provider request.
+ * <p/>
+ * Each subscription declares its own priority, interval and distance filter.
+ * The provider request is made at the strictest of them, and each fix is then
+ * only delivered to the subscriptions whose interval and distance filter it
+ * satisfies. Priorities are the {@code LocationRequest} ones, a lower value
+ * being more accurate.
+ */
+final class SubscriptionRegistry {
+
+    // The provider doesn't deliver at an exact interval, a fix slightly early is
+    // still delivered
+    private static final double INTERVAL_TOLERANCE = 0.9;
+
+    private int[] ids = new int[4];
+    private int[] priorities = new int[4];
+    private long[] intervals = new long[4];
+    private double[] distances = new double[4];
+
+    // Last fix delivered to each subscription, NaN time when none
+    private double[] lastTimes = new double[4];
+    private double[] lastLatitudes = new double[4];
+    private double[] lastLongitudes = new double[4];
+
+    private int size;
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean contains(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Adds a subscription, or updates the settings of an existing one.
+     */
+    synchronized void put(int id, int priority, long interval, double distance) {
+        int index = indexOf(id);
+        if (index < 0) {
+            if (size == ids.length) {
+                grow();
+            }
+            index = size++;
+            ids[index] = id;
+            lastTimes[index] = Double.NaN;
+        }
+        priorities[index] = priority;
+        intervals[index] = interval;
+        distances[index] = distance;
+    }
+
+    synchronized void remove(int id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return;
+        }
+        int last = --size;
+        ids[index] = ids[last];
+        priorities[index] = priorities[last];
+        intervals[index] = intervals[last];
+        distances[index] = distances[last];
+        lastTimes[index] = lastTimes[last];
+        lastLatitudes[index] = lastLatitudes[last];
+        lastLongitudes[index] = lastLongitudes[last];
+    }
+
+    synchronized int mergedPriority() {
+        int priority = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            priority = Math.min(priority, priorities[i]);
+        }
+        return priority;
+    }
+
+    synchronized long mergedInterval() {
+        long interval = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            interval = Math.min(interval, intervals[i]);
+        }
+        return interval;
+    }
+
+    synchronized double mergedDistance() {
+        double distance = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            distance = Math.min(distance, distances[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * Returns the ids of the subscriptions the fix should be delivered to, and
+     * records it as their last delivered fix.
+     */
+    synchronized int[] select(double latitude, double longitude, double time) {
+        int[] targets = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!Double.isNaN(lastTimes[i])) {
+                if (time - lastTimes[i] < intervals[i] * INTERVAL_TOLERANCE) {
+                    continue;
+                }
+                if (distances[i] > 0 && GeoMath.distance(lastLatitudes[i], lastLongitudes[i], latitude,
+                        longitude) < distances[i]) {
+                    continue;
+                }
+            }
+            lastTimes[i] = time;
+            lastLatitudes[i] = latitude;
+            lastLongitudes[i] = longitude;
+            targets[count++] = ids[i];
+        }
+        return count == size ? targets : Arrays.copyOf(targets, count);
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        intervals = Arrays.copyOf(intervals, capacity);
+        distances = Arrays.copyOf(distances, capacity);
+        lastTimes = Arrays.copyOf(lastTimes, capacity);
+        lastLatitudes = Arrays.copyOf(lastLatitudes, capacity);
+        lastLongitudes = Arrays.copyOf(lastLongitudes, capacity);
+    }
+}
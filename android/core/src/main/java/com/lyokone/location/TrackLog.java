@@ -0,0 +1,248 @@
+package com.lyokone.location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Append-only log of fixes stored on disk, so that the track survives the
+ * detachment of the engine or of the activity.
+ * <p/>
+ * The log is split in segments of a fixed number of records, which are
+ * memory-mapped so that appending a fix is a plain memory write. Each record
+ * contains a fix in the {@link LocationPayload} layout followed by a
+ * checksum written last: after a crash, the log resumes at the first record
+ * whose checksum is invalid. Only the most recent segments are kept.
+ */
+final class TrackLog {
+
+    static final int RECORD_SIZE = (LocationPayload.STRIDE + 1) * 8;
+
+    private static final String SEGMENT_PREFIX = "track-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final long CHECKSUM_SEED = 0x4C4F43545241434BL;
+
+    private final File directory;
+    private final int recordsPerSegment;
+    private final int maxSegments;
+
+    private long segmentIndex;
+    private MappedByteBuffer segment;
+    private int position;
+
+    TrackLog(File directory, int recordsPerSegment, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        this.maxSegments = maxSegments;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the track directory " + directory);
+        }
+        long[] segments = listSegments(directory);
+        if (segments.length == 0) {
+            openSegment(0);
+        } else {
+            openSegment(segments[segments.length - 1]);
+            // Recovers the tail, the first invalid record is the end of the log
+            while (position < recordsPerSegment && isValid(segment, position)) {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Appends the fixes of a packed payload.
+     */
+    synchronized void append(double[] fixes, int count) throws IOException {
+        if (segment == null) {
+            throw new IOException("Track log closed");
+        }
+        for (int i = 0; i < count; i++) {
+            if (position == recordsPerSegment) {
+                rotate();
+            }
+            int base = position * RECORD_SIZE;
+            int offset = i * LocationPayload.STRIDE;
+            long checksum = CHECKSUM_SEED;
+            for (int field = 0; field < LocationPayload.STRIDE; field++) {
+                double value = fixes[offset + field];
+                segment.putDouble(base + field * 8, value);
+                checksum = mix(checksum, Double.doubleToRawLongBits(value));
+            }
+            segment.putLong(base + LocationPayload.STRIDE * 8, checksum);
+            position++;
+        }
+    }
+
+    /**
+     * Writes the current segment to the storage device.
+     */
+    synchronized void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    synchronized void close() {
+        flush();
+        segment = null;
+    }
+
+    /**
+     * Removes every segment of the log, which starts again from an empty segment.
+     */
+    synchronized void clear() throws IOException {
+        segment = null;
+        for (long index : listSegments(directory)) {
+            segmentFile(directory, index).delete();
+        }
+        openSegment(segmentIndex + 1);
+    }
+
+    /**
+     * Opens a cursor over the fixes of the log strictly newer than
+     * {@code sinceTime}.
+     */
+    synchronized Cursor openCursor(double sinceTime) {
+        return new Cursor(directory, recordsPerSegment, sinceTime);
+    }
+
+    private void rotate() throws IOException {
+        segment.force();
+        openSegment(segmentIndex + 1);
+
+        long[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            segmentFile(directory, segments[i]).delete();
+        }
+    }
+
+    private void openSegment(long index) throws IOException {
+        segment = mapSegment(segmentFile(directory, index), recordsPerSegment, FileChannel.MapMode.READ_WRITE);
+        segmentIndex = index;
+        position = 0;
+    }
+
+    private static MappedByteBuffer mapSegment(File file, int records, FileChannel.MapMode mode) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw")) {
+            long size = mode == FileChannel.MapMode.READ_ONLY ? Math.min(raf.length(), (long) records * RECORD_SIZE)
+                    : (long) records * RECORD_SIZE;
+            MappedByteBuffer buffer = raf.getChannel().map(mode, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        }
+    }
+
+    private static boolean isValid(MappedByteBuffer buffer, int record) {
+        int base = record * RECORD_SIZE;
+        if (base + RECORD_SIZE > buffer.limit()) {
+            return false;
+        }
+        long checksum = CHECKSUM_SEED;
+        for (int field = 0; field < LocationPayload.STRIDE; field++) {
+            checksum = mix(checksum, buffer.getLong(base + field * 8));
+        }
+        return checksum == buffer.getLong(base + LocationPayload.STRIDE * 8);
+    }
+
+    private static long mix(long checksum, long bits) {
+        return Long.rotateLeft(checksum ^ bits, 13) * 0x9E3779B97F4A7C15L;
+    }
+
+    private static File segmentFile(File directory, long index) {
+        return new File(directory, SEGMENT_PREFIX + index + SEGMENT_SUFFIX);
+    }
+
+    private static long[] listSegments(File directory) {
+        String[] names = directory.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] segments = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    segments[count++] = Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Reads the fixes of the log page by page, in chronological order, mapping a
+     * single segment at a time.
+     */
+    static final class Cursor {
+
+        private final File directory;
+        private final int recordsPerSegment;
+        private final double sinceTime;
+        private final long[] segments;
+
+        private int segmentPosition = -1;
+        private MappedByteBuffer segment;
+        private int record;
+
+        private Cursor(File directory, int recordsPerSegment, double sinceTime) {
+            this.directory = directory;
+            this.recordsPerSegment = recordsPerSegment;
+            this.sinceTime = sinceTime;
+            this.segments = listSegments(directory);
+        }
+
+        /**
+         * Returns the next fixes packed in the {@link LocationPayload} layout, at
+         * most {@code maxCount}, or null at the end of the log.
+         */
+        double[] next(int maxCount) throws IOException {
+            double[] page = new double[maxCount * LocationPayload.STRIDE];
+            int count = 0;
+            while (count < maxCount) {
+                if (segment == null || record == recordsPerSegment || !isValid(segment, record)) {
+                    if (!nextSegment()) {
+                        break;
+                    }
+                    continue;
+                }
+                int base = record * RECORD_SIZE;
+                record++;
+                if (segment.getDouble(base + LocationPayload.TIME * 8) <= sinceTime) {
+                    continue;
+                }
+                for (int field = 0; field < LocationPayload.STRIDE; field++) {
+                    page[count * LocationPayload.STRIDE + field] = segment.getDouble(base + field * 8);
+                }
+                count++;
+            }
+            if (count == 0) {
+                return null;
+            }
+            return count == maxCount ? page : Arrays.copyOf(page, count * LocationPayload.STRIDE);
+        }
+
+        private boolean nextSegment() throws IOException {
+            segment = null;
+            while (++segmentPosition < segments.length) {
+                File file = segmentFile(directory, segments[segmentPosition]);
+                if (file.exists()) {
+                    segment = mapSegment(file, recordsPerSegment, FileChannel.MapMode.READ_ONLY);
+                    record = 0;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
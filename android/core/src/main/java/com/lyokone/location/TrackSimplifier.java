@@ -0,0 +1,89 @@
+package com.lyokone.location;
+
+/**
+ * Streaming simplification of the track, by dead reckoning: a fix is dropped
+ * when it is within the tolerance of the position extrapolated from the last
+ * two kept fixes, i.e. when it brings no information that a straight line at
+ * constant speed doesn't already give. Each fix is processed in constant time,
+ * without buffering.
+ */
+final class TrackSimplifier {
+
+    private final double tolerance;
+
+    // Last two kept fixes, the velocity between them is used to extrapolate
+    private int keptCount;
+    private double lastLatitude;
+    private double lastLongitude;
+    private double lastTime;
+    private double velocityNorth;
+    private double velocityEast;
+
+    /**
+     * @param tolerance maximum distance in meters between a dropped fix and the
+     *                  extrapolated position.
+     */
+    TrackSimplifier(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Removes the redundant fixes of a packed payload, see
+     * {@link LocationPayload}. Kept fixes are moved to the front of the array, in
+     * the same order.
+     *
+     * @return the number of kept fixes.
+     */
+    int simplify(double[] fixes, int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            double latitude = fixes[offset + LocationPayload.LATITUDE];
+            double longitude = fixes[offset + LocationPayload.LONGITUDE];
+            double time = fixes[offset + LocationPayload.TIME];
+
+            if (keptCount > 0) {
+                double metersPerDegreeLon = GeoMath.metersPerDegreeLon(lastLatitude);
+                double north = (latitude - lastLatitude) * GeoMath.METERS_PER_DEGREE_LAT;
+                double east = (longitude - lastLongitude) * metersPerDegreeLon;
+                double elapsed = (time - lastTime) / 1000;
+
+                double errorNorth = north;
+                double errorEast = east;
+                if (keptCount > 1) {
+                    errorNorth -= velocityNorth * elapsed;
+                    errorEast -= velocityEast * elapsed;
+                }
+                if (errorNorth * errorNorth + errorEast * errorEast <= tolerance * tolerance) {
+                    continue;
+                }
+                if (elapsed > 0) {
+                    velocityNorth = north / elapsed;
+                    velocityEast = east / elapsed;
+                }
+            }
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+            lastTime = time;
+            if (keptCount < 2) {
+                keptCount++;
+            }
+
+            if (kept != i) {
+                System.arraycopy(fixes, offset, fixes, kept * LocationPayload.STRIDE, LocationPayload.STRIDE);
+            }
+            kept++;
+        }
+        return kept;
+    }
+
+    void reset() {
+        keptCount = 0;
+        velocityNorth = 0;
+        velocityEast = 0;
+    }
+}
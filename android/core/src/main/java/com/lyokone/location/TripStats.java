@@ -0,0 +1,143 @@
+package com.lyokone.location;
+
+import java.util.HashMap;
+
+/**
+ * Odometer and speed statistics of the trip, accumulated in constant time per
+ * fix.
+ * <p/>
+ * Fixes less accurate than {@link #MAX_ACCURACY} are ignored. To keep the
+ * jitter of a stationary device out of the distance, a step is only counted
+ * once the device moved further than the accuracy of the fix from the last
+ * counted position. The time between two fixes is moving time when the
+ * reported speed is above {@link #MOVING_SPEED}, stopped time otherwise. When
+ * the speed isn't reported, the time since the last counted position is
+ * classified with the speed of the step, once counted, and is stopped time
+ * until then.
+ */
+final class TripStats {
+
+    // Accuracy in meters above which a fix is ignored
+    static final double MAX_ACCURACY = 50;
+
+    // Speed in m/s below which the device is stopped
+    static final double MOVING_SPEED = 0.5;
+
+    // Smallest step in meters counted in the distance, when the accuracy is
+    // better or unknown
+    private static final double MIN_STEP = 2;
+
+    private long fixCount;
+    private long rejectedCount;
+    private double startTime = Double.NaN;
+    private double lastTime;
+
+    // Last position counted in the distance, and time since then not
+    // classified yet
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private double anchorTime;
+    private double pendingTime;
+
+    private double distance;
+    private double movingTime;
+    private double stoppedTime;
+    private double maxSpeed;
+
+    /**
+     * Updates the statistics with the fixes of a packed payload, see
+     * {@link LocationPayload}.
+     */
+    synchronized void update(double[] fixes, int count) {
+        for (int i = 0; i < count; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            update(fixes[offset + LocationPayload.LATITUDE], fixes[offset + LocationPayload.LONGITUDE],
+                    fixes[offset + LocationPayload.ACCURACY], fixes[offset + LocationPayload.SPEED],
+                    fixes[offset + LocationPayload.TIME]);
+        }
+    }
+
+    private void update(double latitude, double longitude, double accuracy, double speed, double time) {
+        if (accuracy > MAX_ACCURACY || (!Double.isNaN(startTime) && time <= lastTime)) {
+            // Inaccurate, or older than the last fix
+            rejectedCount++;
+            return;
+        }
+        fixCount++;
+        if (Double.isNaN(startTime)) {
+            startTime = time;
+            lastTime = time;
+            anchorLatitude = latitude;
+            anchorLongitude = longitude;
+            anchorTime = time;
+            pendingTime = 0;
+            if (speed > 0) {
+                maxSpeed = speed;
+            }
+            return;
+        }
+
+        double elapsed = (time - lastTime) / 1000;
+        lastTime = time;
+        if (Double.isNaN(speed)) {
+            pendingTime += elapsed;
+        } else {
+            if (speed >= MOVING_SPEED) {
+                movingTime += elapsed;
+            } else {
+                stoppedTime += elapsed;
+            }
+            maxSpeed = Math.max(maxSpeed, speed);
+        }
+
+        double step = GeoMath.haversineDistance(anchorLatitude, anchorLongitude, latitude, longitude);
+        if (step > (Double.isNaN(accuracy) ? MIN_STEP : Math.max(accuracy, MIN_STEP))) {
+            distance += step;
+            if (pendingTime > 0) {
+                double stepSpeed = step / ((time - anchorTime) / 1000);
+                if (stepSpeed >= MOVING_SPEED) {
+                    movingTime += pendingTime;
+                } else {
+                    stoppedTime += pendingTime;
+                }
+                maxSpeed = Math.max(maxSpeed, stepSpeed);
+                pendingTime = 0;
+            }
+            anchorLatitude = latitude;
+            anchorLongitude = longitude;
+            anchorTime = time;
+        }
+    }
+
+    synchronized void reset() {
+        fixCount = 0;
+        rejectedCount = 0;
+        startTime = Double.NaN;
+        distance = 0;
+        pendingTime = 0;
+        movingTime = 0;
+        stoppedTime = 0;
+        maxSpeed = 0;
+    }
+
+    /**
+     * Returns the statistics, with the distance in meters, the times in
+     * milliseconds and the speeds in m/s.
+     */
+    synchronized HashMap<String, Object> snapshot() {
+        HashMap<String, Object> snapshot = new HashMap<>();
+        boolean started = !Double.isNaN(startTime);
+        snapshot.put("startTime", started ? startTime : 0.0);
+        snapshot.put("endTime", started ? lastTime : 0.0);
+        snapshot.put("distance", distance);
+        snapshot.put("movingTime", movingTime * 1000);
+        snapshot.put("stoppedTime", (stoppedTime + pendingTime) * 1000);
+        snapshot.put("maxSpeed", maxSpeed);
+        double elapsed = movingTime + stoppedTime + pendingTime;
+        snapshot.put("averageSpeed", elapsed > 0 ? distance / elapsed : 0.0);
+        snapshot.put("averageMovingSpeed", movingTime > 0 ? distance / movingTime : 0.0);
+        snapshot.put("fixCount", fixCount);
+        snapshot.put("rejectedCount", rejectedCount);
+        return snapshot;
+    }
+}
@@ -0,0 +1,62 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CellTrackerTest {
+
+    private final List<String> changes = new ArrayList<>();
+    private final CellTracker.Listener listener = (cell, previous, latitude, longitude, time) -> changes
+            .add(previous + ">" + cell);
+
+    @Test
+    public void encodesGeohashes() {
+        assertEquals("u4pruydqqvj", CellTracker.encode(57.64911, 10.40744, 11, null));
+        double[] bounds = new double[4];
+        assertEquals("u", CellTracker.encode(57.64911, 10.40744, 1, bounds));
+        assertEquals(45, bounds[0], 0);
+        assertEquals(90, bounds[1], 0);
+        assertEquals(0, bounds[2], 0);
+        assertEquals(45, bounds[3], 0);
+    }
+
+    @Test
+    public void listsTheNeighbors() {
+        assertEquals(Arrays.asList("u4pruydqqvm", "u4pruydqqvq", "u4pruydqqvn", "u4pruydqquy", "u4pruydqquv",
+                "u4pruydqquu", "u4pruydqqvh", "u4pruydqqvk"), CellTracker.neighbors(57.64911, 10.40744, 11));
+        // Nothing beyond the pole
+        assertEquals(5, CellTracker.neighbors(89.99, 0, 3).size());
+    }
+
+    @Test
+    public void reportsTheCellChangesOnly() {
+        CellTracker tracker = new CellTracker(7);
+        double[] fixes = TestFixes.north(100, 48, 2, 10, 5);
+        double[] copy = fixes.clone();
+        int count = tracker.update(fixes, 100, listener);
+        assertEquals(changes.size(), count);
+        assertEquals("null>" + CellTracker.encode(48, 2, 7, null), changes.get(0));
+        // 1 km north through cells of about 150 m
+        assertEquals(7, count);
+        // The fixes are left as they are
+        assertEquals(Arrays.toString(copy), Arrays.toString(fixes));
+    }
+
+    @Test
+    public void ignoresTheJitterAlongABorder() {
+        CellTracker tracker = new CellTracker(6);
+        double[] bounds = new double[4];
+        CellTracker.encode(48, 2, 6, bounds);
+        double[] fixes = TestFixes.empty(10);
+        for (int i = 0; i < 10; i++) {
+            // Alternates around the north border of the cell
+            TestFixes.set(fixes, i, bounds[1] + (i % 2 == 0 ? -1 : 1) * 1e-5, 2, 5, TestFixes.START_TIME + i * 1000);
+        }
+        assertEquals(1, tracker.update(fixes, 10, listener));
+    }
+}
@@ -0,0 +1,126 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DeliveryQueueTest {
+
+    private final List<Object> sent = new ArrayList<>();
+    private final DeliveryQueue.Sink sink = sent::add;
+
+    @Test
+    public void sendsEverythingByDefault() {
+        DeliveryQueue queue = new DeliveryQueue(DeliveryQueue.POLICY_ALL, 0, 0);
+        queue.offer("a");
+        queue.offer("b");
+        assertEquals(0, queue.drain(0, sink));
+        assertEquals(Arrays.asList("a", "b"), sent);
+    }
+
+    @Test
+    public void conflatesToTheLatestWithAMinimumInterval() {
+        DeliveryQueue queue = new DeliveryQueue(DeliveryQueue.POLICY_LATEST, 0, 1000);
+        queue.offer("a");
+        assertEquals(0, queue.drain(0, sink));
+        assertEquals(0, queue.offer("b"));
+        assertEquals(1, queue.offer("c"));
+        assertEquals(600, queue.drain(400, sink));
+        assertEquals(0, queue.drain(1000, sink));
+        assertEquals(Arrays.asList("a", "c"), sent);
+    }
+
+    @Test
+    public void dropsTheOldestAboveTheCapacity() {
+        DeliveryQueue queue = new DeliveryQueue(DeliveryQueue.POLICY_DROP_OLDEST, 2, 0);
+        queue.offer("a");
+        queue.offer("b");
+        assertEquals(1, queue.offer("c"));
+        queue.drain(0, sink);
+        assertEquals(Arrays.asList("b", "c"), sent);
+    }
+
+    @Test
+    public void waitsForTheAcknowledgements() {
+        DeliveryQueue queue = new DeliveryQueue(DeliveryQueue.POLICY_DEMAND, 4, 0);
+        queue.offer("a");
+        queue.offer("b");
+        queue.drain(0, sink);
+        assertEquals(Arrays.asList("a"), sent);
+        queue.acknowledge();
+        queue.drain(0, sink);
+        assertEquals(Arrays.asList("a", "b"), sent);
+    }
+
+    @Test
+    public void transfersTheWaitingPayloads() {
+        DeliveryQueue queue = new DeliveryQueue(DeliveryQueue.POLICY_ALL, 0, 1000);
+        queue.offer("a");
+        queue.drain(0, sink);
+        queue.offer("b");
+        queue.offer("c");
+        queue.offer("d");
+        DeliveryQueue replacing = new DeliveryQueue(DeliveryQueue.POLICY_DROP_OLDEST, 2, 1000);
+        assertEquals(1, queue.transferTo(replacing));
+        // Still paced from the last payload sent
+        assertEquals(600, replacing.drain(400, sink));
+        assertEquals(1000, replacing.drain(1000, sink));
+        assertEquals(0, replacing.drain(2000, sink));
+        assertEquals(Arrays.asList("a", "c", "d"), sent);
+        assertEquals(0, queue.drain(3000, sink));
+        assertEquals(3, sent.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPolicies() {
+        new DeliveryQueue(4, 0, 0);
+    }
+
+    @Test
+    public void conflatesPerSubscription() {
+        // Subscription 1 every second, subscription 2 every 5 seconds
+        DeliveryQueue queue = new DeliveryQueue(DeliveryQueue.POLICY_LATEST, 0, 10000);
+        queue.offer(targeted("a", 1, 2));
+        queue.drain(0, sink);
+        assertEquals(0, queue.offer(targeted("b", 1)));
+        assertEquals(0, queue.offer(targeted("c", 2)));
+        assertEquals(1, queue.offer(targeted("d", 1)));
+        // Reaches both, replaces the waiting fixes of both
+        assertEquals(2, queue.offer(targeted("e", 1, 2)));
+        queue.drain(10000, sink);
+        assertEquals(Arrays.asList("a", "e"), payloads());
+    }
+
+    @Test
+    public void keepsTheCapacityOfEachSubscription() {
+        DeliveryQueue queue = new DeliveryQueue(DeliveryQueue.POLICY_DROP_OLDEST, 2, 0);
+        queue.offer(targeted("a", 1));
+        queue.offer(targeted("b", 2));
+        queue.offer(targeted("c", 1));
+        assertEquals(1, queue.offer(targeted("d", 1)));
+        // An untargeted payload reaches every subscription
+        assertEquals(2, queue.offer("e"));
+        queue.drain(0, sink);
+        assertEquals(Arrays.asList("d", "e"), payloads());
+    }
+
+    private static HashMap<String, Object> targeted(String payload, int... targets) {
+        HashMap<String, Object> targeted = new HashMap<>();
+        targeted.put("targets", targets);
+        targeted.put("payload", payload);
+        return targeted;
+    }
+
+    private List<Object> payloads() {
+        List<Object> payloads = new ArrayList<>();
+        for (Object payload : sent) {
+            payloads.add(payload instanceof HashMap ? ((HashMap<?, ?>) payload).get("payload") : payload);
+        }
+        return payloads;
+    }
+}
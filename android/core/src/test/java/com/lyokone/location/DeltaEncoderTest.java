@@ -0,0 +1,48 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DeltaEncoderTest {
+
+    private final DeltaEncoder encoder = new DeltaEncoder();
+
+    @Test
+    public void countsTheEncodedFixes() {
+        double[] fixes = TestFixes.north(200, 48, 2, 1.4, 5);
+        assertEquals(200, DeltaEncoder.count(encoder.encode(fixes, 0, 200)));
+        assertEquals(30, DeltaEncoder.count(encoder.encode(fixes, 10, 40)));
+    }
+
+    @Test
+    public void encodesSmallDeltas() {
+        double[] fixes = TestFixes.north(100, 48, 2, 1.4, 5);
+        byte[] payload = encoder.encode(fixes, 0, 100);
+        // Far below the 8 bytes of each of the 7 values of a packed fix
+        assertTrue(payload.length < 100 * 16);
+        assertEquals(LocationPayload.encodedSize(payload), payload.length + 2);
+    }
+
+    @Test
+    public void encodesAnUnknownSpeedInOneByte() {
+        double[] fixes = TestFixes.single(48, 2, 5, TestFixes.START_TIME);
+        int unknown = encoder.encode(fixes, 0, 1).length;
+        // Zero is a known speed, written as 1
+        fixes[LocationPayload.SPEED] = 0;
+        assertEquals(unknown, encoder.encode(fixes, 0, 1).length);
+        fixes[LocationPayload.SPEED] = 10;
+        assertEquals(unknown + 1, encoder.encode(fixes, 0, 1).length);
+    }
+
+    @Test
+    public void encodesAnUnknownHeadingInOneByte() {
+        double[] fixes = TestFixes.single(48, 2, 5, TestFixes.START_TIME);
+        int unknown = encoder.encode(fixes, 0, 1).length;
+        fixes[LocationPayload.HEADING] = 0;
+        assertEquals(unknown, encoder.encode(fixes, 0, 1).length);
+        fixes[LocationPayload.HEADING] = 90;
+        assertEquals(unknown + 2, encoder.encode(fixes, 0, 1).length);
+    }
+}
@@ -0,0 +1,104 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GeofenceEngineTest {
+
+    private final GeofenceEngine engine = new GeofenceEngine();
+    private final List<String> transitions = new ArrayList<>();
+    private final GeofenceEngine.Listener listener = (id, transition, latitude, longitude, time) -> transitions
+            .add(id + ":" + transition);
+
+    @Test
+    public void reportsEnterDwellAndExitOfACircle() {
+        engine.addCircle("home", 48, 2, 100, 5000);
+        engine.evaluate(48.1, 2, 0, listener);
+        engine.evaluate(48, 2, 1000, listener);
+        engine.evaluate(48.0001, 2, 3000, listener);
+        engine.evaluate(48.0002, 2, 7000, listener);
+        engine.evaluate(48.1, 2, 8000, listener);
+        assertEquals(Arrays.asList("home:" + GeofenceEngine.TRANSITION_ENTER, "home:" + GeofenceEngine.TRANSITION_DWELL,
+                "home:" + GeofenceEngine.TRANSITION_EXIT), transitions);
+    }
+
+    @Test
+    public void testsPolygons() {
+        engine.addPolygon("square", new double[] { 48, 2, 48, 2.01, 48.01, 2.01, 48.01, 2 }, 0);
+        engine.evaluate(48.005, 2.005, 0, listener);
+        engine.evaluate(48.005, 2.015, 1000, listener);
+        assertEquals(Arrays.asList("square:" + GeofenceEngine.TRANSITION_ENTER,
+                "square:" + GeofenceEngine.TRANSITION_EXIT), transitions);
+    }
+
+    @Test
+    public void testsFencesLargerThanTheIndex() {
+        engine.addCircle("region", 48, 2, 200000, 0);
+        engine.evaluate(49, 2, 0, listener);
+        assertEquals(Arrays.asList("region:" + GeofenceEngine.TRANSITION_ENTER), transitions);
+    }
+
+    @Test
+    public void removesFencesWithoutReportingExits() {
+        engine.addCircle("a", 48, 2, 100, 0);
+        engine.addCircle("b", 48, 2, 200, 0);
+        engine.evaluate(48, 2, 0, listener);
+        engine.remove(Collections.singletonList("a"));
+        assertEquals(1, engine.size());
+        engine.evaluate(48.1, 2, 1000, listener);
+        assertEquals(Arrays.asList("a:" + GeofenceEngine.TRANSITION_ENTER, "b:" + GeofenceEngine.TRANSITION_ENTER,
+                "b:" + GeofenceEngine.TRANSITION_EXIT), transitions);
+    }
+
+    @Test
+    public void replacesFencesInPlace() {
+        engine.addCircle("a", 48, 2, 100, 0);
+        engine.addCircle("b", 48, 2, 200, 0);
+        engine.evaluate(48, 2, 0, listener);
+        // Moved away, the exit is reported by the next fix
+        engine.addCircle("a", 49, 3, 100, 0);
+        assertEquals(2, engine.size());
+        engine.evaluate(48, 2, 1000, listener);
+        engine.evaluate(49, 3, 2000, listener);
+        // Larger than the index, then indexed again
+        engine.addCircle("b", 49, 3, 200000, 0);
+        engine.addCircle("b", 48, 2, 200, 0);
+        engine.evaluate(48, 2, 3000, listener);
+        assertEquals(Arrays.asList("a:" + GeofenceEngine.TRANSITION_ENTER, "b:" + GeofenceEngine.TRANSITION_ENTER,
+                "a:" + GeofenceEngine.TRANSITION_EXIT, "b:" + GeofenceEngine.TRANSITION_EXIT,
+                "a:" + GeofenceEngine.TRANSITION_ENTER, "a:" + GeofenceEngine.TRANSITION_EXIT,
+                "b:" + GeofenceEngine.TRANSITION_ENTER), transitions);
+    }
+
+    @Test
+    public void keepsTheStateOfAReplacedFence() {
+        engine.addCircle("home", 48, 2, 100, 5000);
+        engine.evaluate(48, 2, 0, listener);
+        // Larger, the device is still in it and dwells since its first enter
+        engine.addCircle("home", 48, 2, 200, 5000);
+        engine.evaluate(48.001, 2, 5000, listener);
+        engine.addCircle("home", 48, 2, 300, 5000);
+        engine.evaluate(48.002, 2, 6000, listener);
+        engine.evaluate(48.1, 2, 7000, listener);
+        assertEquals(Arrays.asList("home:" + GeofenceEngine.TRANSITION_ENTER, "home:" + GeofenceEngine.TRANSITION_DWELL,
+                "home:" + GeofenceEngine.TRANSITION_EXIT), transitions);
+    }
+
+    @Test(timeout = 5000)
+    public void replacesManyFencesInLinearTime() {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 10000; i++) {
+                engine.addCircle("fence" + i, 48 + (i / 100) * 0.01, 2 + (i % 100) * 0.01, 100 + pass, 0);
+            }
+        }
+        assertEquals(10000, engine.size());
+        engine.evaluate(48.5, 2.5, 0, listener);
+        assertEquals(Arrays.asList("fence5050:" + GeofenceEngine.TRANSITION_ENTER), transitions);
+    }
+}
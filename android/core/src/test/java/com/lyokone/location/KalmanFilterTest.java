@@ -0,0 +1,104 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KalmanFilterTest {
+
+    @Test
+    public void keepsTheFirstFix() {
+        KalmanFilter filter = new KalmanFilter(4, 0);
+        double[] fixes = TestFixes.single(48, 2, 5, TestFixes.START_TIME);
+        assertEquals(1, filter.filter(fixes, 1));
+        assertEquals(48, TestFixes.get(fixes, 0, LocationPayload.LATITUDE), 1e-9);
+        assertEquals(5, TestFixes.get(fixes, 0, LocationPayload.ACCURACY), 1e-9);
+    }
+
+    @Test
+    public void rejectsInaccurateAndUnknownAccuracyFixes() {
+        KalmanFilter filter = new KalmanFilter(4, 20);
+        double[] fixes = TestFixes.empty(3);
+        TestFixes.set(fixes, 0, 48, 2, 50, TestFixes.START_TIME);
+        TestFixes.set(fixes, 1, 48, 2, Double.NaN, TestFixes.START_TIME + 1000);
+        TestFixes.set(fixes, 2, 48, 2, 10, TestFixes.START_TIME + 2000);
+        assertEquals(1, filter.filter(fixes, 3));
+        // The kept fix is moved to the front
+        assertEquals(TestFixes.START_TIME + 2000, TestFixes.get(fixes, 0, LocationPayload.TIME), 0);
+    }
+
+    @Test
+    public void reducesTheAccuracyOfAStillDevice() {
+        KalmanFilter filter = new KalmanFilter(4, 0);
+        double[] fixes = TestFixes.north(20, 48, 2, 0, 10);
+        assertEquals(20, filter.filter(fixes, 20));
+        assertTrue(TestFixes.get(fixes, 19, LocationPayload.ACCURACY) < 10);
+    }
+
+    @Test
+    public void convergesOnANoisyTrack() {
+        KalmanFilter filter = new KalmanFilter(4, 0);
+        int count = 120;
+        double[] truth = TestFixes.north(count, 48, 2, 10, 10);
+        double[] fixes = truth.clone();
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            fixes[offset + LocationPayload.LATITUDE] += random.nextGaussian() * 7 * TestFixes.DEGREES_PER_METER;
+            fixes[offset + LocationPayload.LONGITUDE] += random.nextGaussian() * 7 * TestFixes.DEGREES_PER_METER
+                    / Math.cos(Math.toRadians(48));
+        }
+        double[] measured = fixes.clone();
+        assertEquals(count, filter.filter(fixes, count));
+
+        double measuredError = 0;
+        double filteredError = 0;
+        for (int i = count / 2; i < count; i++) {
+            measuredError += error(measured, truth, i);
+            filteredError += error(fixes, truth, i);
+        }
+        // The acceleration noise is sized for vehicles, the smoothing of a
+        // constant velocity track stays moderate
+        assertTrue(filteredError < measuredError * 0.8);
+        assertTrue(TestFixes.get(fixes, count - 1, LocationPayload.ACCURACY) < 10);
+    }
+
+    @Test
+    public void rejectsAnOutlier() {
+        KalmanFilter filter = new KalmanFilter(4, 0);
+        filter.filter(TestFixes.north(20, 48, 2, 0, 5), 20);
+        double jump = 48 + 500 * TestFixes.DEGREES_PER_METER;
+        assertEquals(0, filter.filter(TestFixes.single(jump, 2, 5, TestFixes.START_TIME + 20000), 1));
+
+        double[] fixes = TestFixes.single(48, 2, 5, TestFixes.START_TIME + 21000);
+        assertEquals(1, filter.filter(fixes, 1));
+        assertEquals(48, TestFixes.get(fixes, 0, LocationPayload.LATITUDE), 2 * TestFixes.DEGREES_PER_METER);
+    }
+
+    @Test
+    public void restartsAfterTooManyRejections() {
+        KalmanFilter filter = new KalmanFilter(4, 0);
+        filter.filter(TestFixes.north(20, 48, 2, 0, 5), 20);
+        // The device really moved, every fix is far from the prediction
+        double[] fixes = TestFixes.north(6, 48 + 1000 * TestFixes.DEGREES_PER_METER, 2, 0, 5);
+        for (int i = 0; i < 6; i++) {
+            fixes[i * LocationPayload.STRIDE + LocationPayload.TIME] += 20000;
+        }
+        assertEquals(1, filter.filter(fixes, 6));
+        // The sixth fix is kept as is, the filter starts again from it
+        assertEquals(TestFixes.START_TIME + 25000, TestFixes.get(fixes, 0, LocationPayload.TIME), 0);
+        assertEquals(48 + 1000 * TestFixes.DEGREES_PER_METER, TestFixes.get(fixes, 0, LocationPayload.LATITUDE),
+                1e-9);
+        assertEquals(5, TestFixes.get(fixes, 0, LocationPayload.ACCURACY), 1e-9);
+    }
+
+    private static double error(double[] fixes, double[] truth, int index) {
+        return GeoMath.distance(TestFixes.get(fixes, index, LocationPayload.LATITUDE),
+                TestFixes.get(fixes, index, LocationPayload.LONGITUDE),
+                TestFixes.get(truth, index, LocationPayload.LATITUDE),
+                TestFixes.get(truth, index, LocationPayload.LONGITUDE));
+    }
+}
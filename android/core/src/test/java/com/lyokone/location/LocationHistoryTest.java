@@ -0,0 +1,36 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LocationHistoryTest {
+
+    @Test
+    public void keepsTheMostRecentFixes() {
+        LocationHistory history = new LocationHistory(4);
+        history.add(TestFixes.north(10, 48, 2, 1, 5), 10);
+        double[] recent = history.query(0, 0);
+        assertEquals(4 * LocationHistory.STRIDE, recent.length);
+        assertEquals(TestFixes.START_TIME + 6000, recent[LocationHistory.TIME], 0);
+        assertEquals(TestFixes.START_TIME + 9000, recent[3 * LocationHistory.STRIDE + LocationHistory.TIME], 0);
+    }
+
+    @Test
+    public void filtersByTimeAndCount() {
+        LocationHistory history = new LocationHistory(16);
+        history.add(TestFixes.north(10, 48, 2, 1, 5), 10);
+        assertEquals(3 * LocationHistory.STRIDE, history.query(TestFixes.START_TIME + 6000, 0).length);
+        double[] last = history.query(0, 2);
+        assertEquals(2 * LocationHistory.STRIDE, last.length);
+        assertEquals(TestFixes.START_TIME + 8000, last[LocationHistory.TIME], 0);
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        LocationHistory history = new LocationHistory(16);
+        history.add(TestFixes.north(10, 48, 2, 1, 5), 10);
+        history.clear();
+        assertEquals(0, history.query(0, 0).length);
+    }
+}
@@ -0,0 +1,46 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LocationPayloadTest {
+
+    @Test
+    public void slicesWithoutCopyingTheWholePayload() {
+        double[] fixes = TestFixes.north(5, 48, 2, 1, 5);
+        assertSame(fixes, LocationPayload.slice(fixes, 0, 5));
+        double[] slice = LocationPayload.slice(fixes, 1, 3);
+        assertEquals(2 * LocationPayload.STRIDE, slice.length);
+        assertEquals(TestFixes.START_TIME + 1000, slice[LocationPayload.TIME], 0);
+    }
+
+    @Test
+    public void leavesTheUnknownOptionalValuesOutOfTheMap() {
+        Map<String, Double> map = LocationPayload.toMap(TestFixes.single(48, 2, 5, TestFixes.START_TIME), 0);
+        assertEquals(48, map.get("latitude"), 0);
+        assertFalse(map.containsKey("speed"));
+        assertFalse(map.containsKey("heading"));
+        assertFalse(map.containsKey("speed_accuracy"));
+        assertFalse(map.containsKey("satellites"));
+    }
+
+    @Test
+    public void countsTheFixesOfEveryFormat() {
+        double[] fixes = TestFixes.north(3, 48, 2, 1, 5);
+        assertEquals(3, LocationPayload.fixCount(fixes));
+        assertEquals(3, LocationPayload.fixCount(new DeltaEncoder().encode(fixes, 0, 3)));
+        assertEquals(2, LocationPayload.fixCount(Arrays.asList(new HashMap<>(), new HashMap<>())));
+        HashMap<String, Object> targeted = new HashMap<>();
+        targeted.put("targets", new int[] { 1 });
+        targeted.put("payload", fixes);
+        assertEquals(3, LocationPayload.fixCount(targeted));
+        assertEquals(1, LocationPayload.fixCount(LocationPayload.toMap(fixes, 0)));
+    }
+}
@@ -0,0 +1,22 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LocationPriorityTest {
+
+    @Test
+    public void mapsTheFlutterAccuracies() {
+        assertEquals(LocationPriority.NO_POWER, LocationPriority.fromFlutterAccuracy(0));
+        assertEquals(LocationPriority.LOW_POWER, LocationPriority.fromFlutterAccuracy(1));
+        assertEquals(LocationPriority.BALANCED_POWER_ACCURACY, LocationPriority.fromFlutterAccuracy(2));
+        assertEquals(LocationPriority.HIGH_ACCURACY, LocationPriority.fromFlutterAccuracy(3));
+        assertEquals(LocationPriority.HIGH_ACCURACY, LocationPriority.fromFlutterAccuracy(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownAccuracies() {
+        LocationPriority.fromFlutterAccuracy(5);
+    }
+}
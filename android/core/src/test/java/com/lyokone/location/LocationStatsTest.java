@@ -0,0 +1,43 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LocationStatsTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void summarizesCountersAndHistograms() {
+        LocationStats stats = new LocationStats();
+        stats.increment(LocationStats.FIXES_RECEIVED);
+        stats.add(LocationStats.FIXES_RECEIVED, 9);
+        for (int i = 1; i <= 100; i++) {
+            stats.record(LocationStats.PROCESSING_TIME, i);
+        }
+        Map<String, Object> snapshot = stats.snapshot();
+        assertEquals(10L, ((Map<String, Long>) snapshot.get("counters")).get("fixesReceived").longValue());
+        Map<String, Object> processing = ((Map<String, Map<String, Object>>) snapshot.get("histograms"))
+                .get("processingTime");
+        assertEquals(100L, processing.get("count"));
+        assertEquals(50.5, (Double) processing.get("mean"), 1e-9);
+        assertEquals(100L, processing.get("max"));
+        // Upper bound of the power of two bucket, capped by the max
+        assertEquals(63L, processing.get("p50"));
+        assertEquals(100L, processing.get("p99"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void resetClearsEverything() {
+        LocationStats stats = new LocationStats();
+        stats.increment(LocationStats.FIXES_EMITTED);
+        stats.record(LocationStats.FIX_AGE, 10);
+        stats.reset();
+        Map<String, Object> snapshot = stats.snapshot();
+        assertEquals(0L, ((Map<String, Long>) snapshot.get("counters")).get("fixesEmitted").longValue());
+        assertEquals(0L, ((Map<String, Map<String, Object>>) snapshot.get("histograms")).get("fixAge").get("count"));
+    }
+}
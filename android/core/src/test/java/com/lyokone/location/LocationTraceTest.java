@@ -0,0 +1,157 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class LocationTraceTest {
+
+    private static final double START_TIME = TestFixes.START_TIME;
+
+    @Test
+    public void readsGpx() throws IOException {
+        LocationTrace trace = read("trace.gpx", LocationTrace.FORMAT_GPX);
+        assertEquals(3, trace.size());
+        assertEquals(3, trace.getFixCount());
+        assertEquals(48.117302, value(trace, 0, LocationPayload.LATITUDE), 1e-9);
+        assertEquals(11.516674, value(trace, 0, LocationPayload.LONGITUDE), 1e-9);
+        assertEquals(545.4, value(trace, 0, LocationPayload.ALTITUDE), 1e-9);
+        // Estimated from the HDOP
+        assertEquals(7.5, value(trace, 0, LocationPayload.ACCURACY), 1e-9);
+        assertEquals(5.5, value(trace, 2, LocationPayload.SPEED), 1e-9);
+        assertEquals(12.5, value(trace, 2, LocationPayload.HEADING), 1e-9);
+    }
+
+    @Test
+    public void readsTheTimeZonesAndFractionalSecondsOfGpx() throws IOException {
+        LocationTrace trace = read("trace.gpx", LocationTrace.FORMAT_GPX);
+        assertEquals(START_TIME, trace.getTime(0), 0);
+        assertEquals(START_TIME + 1500, trace.getTime(1), 0);
+        assertEquals(START_TIME + 3250, trace.getTime(2), 0);
+    }
+
+    @Test
+    public void estimatesTheMissingMotion() throws IOException {
+        LocationTrace trace = read("trace.gpx", LocationTrace.FORMAT_GPX);
+        double step = GeoMath.distance(48.117302, 11.516674, 48.117402, 11.516674);
+        assertEquals(step / 1.5, value(trace, 1, LocationPayload.SPEED), 1e-6);
+        // Due north
+        assertEquals(0, value(trace, 1, LocationPayload.HEADING), 1e-6);
+        assertEquals(10, value(trace, 1, LocationPayload.ACCURACY), 1e-9);
+    }
+
+    @Test
+    public void readsNmea() throws IOException {
+        LocationTrace trace = read("trace.nmea", LocationTrace.FORMAT_NMEA);
+        // Every sentence, and a fix after each valid RMC sentence
+        assertEquals(7, trace.size());
+        assertEquals(2, trace.getFixCount());
+        assertFalse(trace.isFix(0));
+        assertTrue(trace.isFix(1));
+        assertTrue(trace.getSentence(2).startsWith("$GPGGA,000000.00,"));
+        assertFalse(trace.isFix(3));
+        assertTrue(trace.isFix(6));
+        assertEquals(48 + 7.03812 / 60, value(trace, 1, LocationPayload.LATITUDE), 1e-9);
+        assertEquals(11 + 31.00045 / 60, value(trace, 1, LocationPayload.LONGITUDE), 1e-9);
+        assertEquals(1.944 * 1852 / 3600, value(trace, 1, LocationPayload.SPEED), 1e-9);
+        assertEquals(84.4, value(trace, 1, LocationPayload.HEADING), 1e-9);
+    }
+
+    @Test
+    public void readsTheFractionalSecondsOfNmea() throws IOException {
+        LocationTrace trace = read("trace.nmea", LocationTrace.FORMAT_NMEA);
+        assertEquals(START_TIME, trace.getTime(0), 0);
+        assertEquals(START_TIME, trace.getTime(1), 0);
+        // Sentences get the time of the next fix
+        assertEquals(START_TIME + 2500, trace.getTime(2), 0);
+        assertEquals(START_TIME + 2500, trace.getTime(6), 0);
+    }
+
+    @Test
+    public void readsCsv() throws IOException {
+        LocationTrace trace = read("trace.csv", LocationTrace.FORMAT_CSV);
+        assertEquals(3, trace.getFixCount());
+        assertEquals(4, value(trace, 0, LocationPayload.ACCURACY), 1e-9);
+        assertEquals(1.5, value(trace, 0, LocationPayload.SPEED), 1e-9);
+        assertEquals(10, value(trace, 1, LocationPayload.ACCURACY), 1e-9);
+        assertEquals(2, value(trace, 2, LocationPayload.SPEED), 1e-9);
+        assertEquals(48.117502, value(trace, 2, LocationPayload.LATITUDE), 1e-9);
+        assertEquals(START_TIME, trace.getTime(0), 0);
+        assertEquals(START_TIME + 1750, trace.getTime(1), 0);
+        assertEquals(START_TIME + 3000, trace.getTime(2), 0);
+    }
+
+    @Test
+    public void rejectsACsvRowWithoutLongitude() {
+        try {
+            read("missing_longitude.csv", LocationTrace.FORMAT_CSV);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Invalid trace: line 3 has no latitude or longitude", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsAShortCsvRow() {
+        try {
+            LocationTrace.read(new StringReader("time,longitude,latitude\n1577836800000,11.5\n"),
+                    LocationTrace.FORMAT_CSV);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Invalid trace: line 2 has no latitude or longitude", e.getMessage());
+        }
+    }
+
+    @Test
+    public void neverReadsExternalEntities() throws IOException {
+        File secret = File.createTempFile("secret", ".txt");
+        try {
+            try (FileWriter writer = new FileWriter(secret)) {
+                writer.write("1577836800000");
+            }
+            String gpx = "<?xml version=\"1.0\"?>\n"
+                    + "<!DOCTYPE gpx [<!ENTITY time SYSTEM \"" + secret.toURI() + "\">]>\n"
+                    + "<gpx><wpt lat=\"48\" lon=\"11\"><time>&time;</time></wpt></gpx>";
+            try {
+                LocationTrace.read(new StringReader(gpx), LocationTrace.FORMAT_GPX);
+                fail();
+            } catch (IOException e) {
+                // Rejected, or the point has no time when the entity is resolved to nothing
+                assertFalse(e.getMessage().contains("1577836800000"));
+            }
+        } finally {
+            secret.delete();
+        }
+    }
+
+    @Test
+    public void parsesTimeZoneOffsets() {
+        assertEquals(START_TIME, LocationTrace.parseTime("2020-01-01T05:30:00+05:30"), 0);
+        assertEquals(START_TIME, LocationTrace.parseTime("2020-01-01T05:30:00+0530"), 0);
+        assertEquals(START_TIME, LocationTrace.parseTime("2019-12-31T21:00:00-03"), 0);
+        assertEquals(START_TIME + 125, LocationTrace.parseTime("2020-01-01T00:00:00.125Z"), 0);
+        assertEquals(START_TIME, LocationTrace.parseTime("1577836800000"), 0);
+    }
+
+    private static double value(LocationTrace trace, int record, int field) {
+        return trace.getFixes()[trace.getFixOffset(record) + field];
+    }
+
+    private LocationTrace read(String name, int format) throws IOException {
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/trace/" + name),
+                StandardCharsets.UTF_8)) {
+            return LocationTrace.read(reader, format);
+        }
+    }
+}
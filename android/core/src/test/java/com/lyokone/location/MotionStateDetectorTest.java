@@ -0,0 +1,31 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MotionStateDetectorTest {
+
+    @Test
+    public void detectsAStationaryDevice() {
+        MotionStateDetector detector = new MotionStateDetector();
+        double[] fixes = TestFixes.north(30, 48, 2, 0, 5);
+        for (int i = 0; i < 30; i++) {
+            fixes[i * LocationPayload.STRIDE + LocationPayload.SPEED] = 0;
+        }
+        assertTrue(detector.update(fixes, 30));
+        assertEquals(MotionStateDetector.STATE_STATIONARY, detector.getState());
+    }
+
+    @Test
+    public void detectsDriving() {
+        MotionStateDetector detector = new MotionStateDetector();
+        double[] fixes = TestFixes.north(30, 48, 2, 15, 5);
+        for (int i = 0; i < 30; i++) {
+            fixes[i * LocationPayload.STRIDE + LocationPayload.SPEED] = 15;
+        }
+        detector.update(fixes, 30);
+        assertEquals(MotionStateDetector.STATE_DRIVING, detector.getState());
+    }
+}
@@ -0,0 +1,165 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class NmeaParserTest {
+
+    private final NmeaParser parser = new NmeaParser();
+
+    @Test
+    public void parsesGga() {
+        assertTrue(parser.parse("$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47"));
+        assertEquals(545.4, parser.getMslAltitude(), 1e-9);
+        assertEquals(8, parser.getSatellitesUsed());
+        assertEquals(0.9, parser.getHdop(), 1e-9);
+    }
+
+    @Test
+    public void rejectsWrongChecksum() {
+        assertFalse(parser.parse("$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*48"));
+        assertTrue(Double.isNaN(parser.getMslAltitude()));
+    }
+
+    @Test
+    public void ignoresUnknownSentences() {
+        assertFalse(parser.parse("$GPVTG,054.7,T,034.4,M,005.5,N,010.2,K*48"));
+    }
+
+    @Test
+    public void resetForgetsTheValues() {
+        parser.parse("$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47");
+        parser.reset();
+        assertTrue(Double.isNaN(parser.getMslAltitude()));
+        assertEquals(-1, parser.getSatellitesUsed());
+        assertTrue(Double.isNaN(parser.getHdop()));
+    }
+
+    @Test
+    public void computesEpochMillis() {
+        assertEquals(0, NmeaParser.epochMillis(1970, 1, 1, 0), 0);
+        assertEquals(TestFixes.START_TIME, NmeaParser.epochMillis(2020, 1, 1, 0), 0);
+        assertEquals(951782400000.0 + 3723500, NmeaParser.epochMillis(2000, 2, 29, 3723.5), 0);
+    }
+
+    @Test
+    public void parsesAGpsCorpus() throws IOException {
+        assertEquals(9, parseCorpus("gps.nmea"));
+        assertTrue(parser.isFixValid());
+        assertEquals(48 + 7.0392 / 60, parser.getLatitude(), 1e-9);
+        assertEquals(11 + 31.0019 / 60, parser.getLongitude(), 1e-9);
+        assertEquals(2.041 * 1852 / 3600, parser.getSpeed(), 1e-9);
+        assertEquals(85.1, parser.getCourse(), 1e-9);
+        assertEquals(NmeaParser.epochMillis(1994, 3, 23, 8 * 3600 + 18 * 60 + 36), parser.getTime(), 0);
+        assertEquals(545.9, parser.getMslAltitude(), 1e-9);
+        assertEquals(9, parser.getSatellitesUsed());
+        assertEquals(11, parser.getSatellitesInView());
+        assertEquals(1.65, parser.getPdop(), 1e-9);
+        assertEquals(0.9, parser.getHdop(), 1e-9);
+        assertEquals(1.38, parser.getVdop(), 1e-9);
+    }
+
+    @Test
+    public void parsesAMultiConstellationCorpus() throws IOException {
+        assertEquals(9, parseCorpus("gnss.nmea"));
+        assertTrue(parser.isFixValid());
+        assertEquals(-(37 + 23.46587 / 60), parser.getLatitude(), 1e-9);
+        assertEquals(-(122 + 2.26957 / 60), parser.getLongitude(), 1e-9);
+        assertTrue(Double.isNaN(parser.getCourse()));
+        assertEquals(NmeaParser.epochMillis(1999, 12, 31, 86399.5), parser.getTime(), 0);
+        assertEquals(12.3, parser.getMslAltitude(), 1e-9);
+        assertEquals(14, parser.getSatellitesUsed());
+        // GPS, GLONASS and Galileo satellites in view
+        assertEquals(18, parser.getSatellitesInView());
+        assertEquals(1.21, parser.getPdop(), 1e-9);
+        assertEquals(0.71, parser.getHdop(), 1e-9);
+        assertEquals(0.98, parser.getVdop(), 1e-9);
+    }
+
+    @Test
+    public void rejectsMalformedSentences() {
+        assertFalse(parser.parse(""));
+        assertFalse(parser.parse("GPGGA,081835.00,,,,,0,00,99.99,,,,,,*61"));
+        assertFalse(parser.parse("$GPGGA,081835.00,,,,,0,00,99.99,,,,,,"));
+        assertFalse(parser.parse("$GPGGA,081835.00,,,,,0,00,99.99,,,,,,*6"));
+        assertFalse(parser.parse("$GPGGA,081835.00,,,,,0,00,99.99,,,,,,*6G"));
+        assertFalse(parser.parse("$GPGGAX,081835.00,,,,,0,00,99.99,,,,,,*39"));
+    }
+
+    @Test
+    public void acceptsLowerCaseChecksums() {
+        assertTrue(parser.parse("$GPGSA,A,3,04,05,09,,,,,,,,,,2.10,,1.80*1e"));
+    }
+
+    @Test
+    public void keepsEmptyFieldsUnknown() {
+        assertTrue(parser.parse("$GPGGA,081835.00,4807.03812,N,01131.00045,E,1,08,0.94,,M,,M,,*6E"));
+        assertTrue(Double.isNaN(parser.getMslAltitude()));
+        assertEquals(8, parser.getSatellitesUsed());
+
+        assertTrue(parser.parse("$GPGSA,A,3,04,05,09,,,,,,,,,,2.10,,1.80*1E"));
+        assertEquals(2.1, parser.getPdop(), 1e-9);
+        assertTrue(Double.isNaN(parser.getHdop()));
+        assertEquals(1.8, parser.getVdop(), 1e-9);
+
+        assertTrue(parser.parse("$GPRMC,081838.00,A,4807.039,N,01131.002,E,,,230394,,,A*5A"));
+        assertEquals(48 + 7.039 / 60, parser.getLatitude(), 1e-9);
+        assertTrue(Double.isNaN(parser.getSpeed()));
+        assertTrue(Double.isNaN(parser.getCourse()));
+    }
+
+    @Test
+    public void forgetsTheAltitudeWithoutAFix() {
+        parser.parse("$GPGGA,081835.00,4807.03812,N,01131.00045,E,1,08,0.94,545.4,M,46.9,M,,*55");
+        assertTrue(parser.parse("$GPGGA,081835.00,,,,,0,00,99.99,,,,,,*61"));
+        assertTrue(Double.isNaN(parser.getMslAltitude()));
+        assertEquals(-1, parser.getSatellitesUsed());
+    }
+
+    @Test
+    public void keepsThePositionOfAnInvalidRmc() {
+        parser.parse("$GPRMC,081836.00,A,4807.03920,N,01131.00190,E,2.041,85.1,230394,,,A*67");
+        assertTrue(parser.parse("$GPRMC,081837.00,V,,,,,,,230394,,,N*77"));
+        assertFalse(parser.isFixValid());
+        assertEquals(48 + 7.0392 / 60, parser.getLatitude(), 1e-9);
+    }
+
+    @Test
+    public void limitsTheFieldCount() {
+        // 32 fields
+        assertTrue(parser.parse("$GPGSV,1,1,07,04,47,294,42,05,38,195,44,09,12,045,31,12,61,121,46,16,05,320,,"
+                + "18,09,090,,24,33,268,40*4A"));
+        assertEquals(7, parser.getSatellitesInView());
+        // 36 fields
+        assertFalse(parser.parse("$GPGSV,1,1,08,04,47,294,42,05,38,195,44,09,12,045,31,12,61,121,46,16,05,320,,"
+                + "18,09,090,,24,33,268,40,25,70,022,47*76"));
+        assertEquals(7, parser.getSatellitesInView());
+    }
+
+    /**
+     * Parses the sentences of a corpus of the test resources.
+     *
+     * @return the number of understood sentences.
+     */
+    private int parseCorpus(String name) throws IOException {
+        int understood = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/nmea/" + name), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (parser.parse(line)) {
+                    understood++;
+                }
+            }
+        }
+        return understood;
+    }
+}
@@ -0,0 +1,42 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+public class SubscriptionRegistryTest {
+
+    private final SubscriptionRegistry registry = new SubscriptionRegistry();
+
+    @Test
+    public void mergesTheStrictestSettings() {
+        registry.put(1, LocationPriority.BALANCED_POWER_ACCURACY, 10000, 50);
+        registry.put(2, LocationPriority.HIGH_ACCURACY, 60000, 0);
+        assertEquals(LocationPriority.HIGH_ACCURACY, registry.mergedPriority());
+        assertEquals(10000, registry.mergedInterval());
+        assertEquals(0, registry.mergedDistance(), 0);
+    }
+
+    @Test
+    public void selectsTheSubscriptionsAFixSatisfies() {
+        registry.put(1, LocationPriority.HIGH_ACCURACY, 1000, 0);
+        registry.put(2, LocationPriority.HIGH_ACCURACY, 5000, 0);
+        registry.put(3, LocationPriority.HIGH_ACCURACY, 1000, 100);
+        assertArrayEquals(new int[] { 1, 2, 3 }, registry.select(48, 2, 0));
+        assertArrayEquals(new int[] { 1 }, registry.select(48, 2, 1000));
+        assertArrayEquals(new int[] { 1, 3 }, registry.select(48.001, 2, 2000));
+        assertArrayEquals(new int[] { 1, 2 }, registry.select(48.001, 2, 5000));
+    }
+
+    @Test
+    public void removesSubscriptions() {
+        registry.put(1, LocationPriority.HIGH_ACCURACY, 1000, 0);
+        registry.put(2, LocationPriority.LOW_POWER, 5000, 0);
+        registry.remove(1);
+        assertFalse(registry.contains(1));
+        assertEquals(1, registry.size());
+        assertEquals(LocationPriority.LOW_POWER, registry.mergedPriority());
+    }
+}
@@ -0,0 +1,57 @@
+package com.lyokone.location;
+
+import java.util.Arrays;
+
+/**
+ * Builders of packed payloads for the tests, see {@link LocationPayload}.
+ */
+final class TestFixes {
+
+    // 2020-01-01T00:00:00Z
+    static final double START_TIME = 1577836800000.0;
+
+    // Degrees of latitude per meter
+    static final double DEGREES_PER_METER = 1 / 111195.0;
+
+    private TestFixes() {
+    }
+
+    /**
+     * Returns a payload of {@code count} fixes with unknown values.
+     */
+    static double[] empty(int count) {
+        double[] fixes = new double[count * LocationPayload.STRIDE];
+        Arrays.fill(fixes, Double.NaN);
+        return fixes;
+    }
+
+    static void set(double[] fixes, int index, double latitude, double longitude, double accuracy, double time) {
+        int offset = index * LocationPayload.STRIDE;
+        fixes[offset + LocationPayload.LATITUDE] = latitude;
+        fixes[offset + LocationPayload.LONGITUDE] = longitude;
+        fixes[offset + LocationPayload.ACCURACY] = accuracy;
+        fixes[offset + LocationPayload.TIME] = time;
+    }
+
+    static double[] single(double latitude, double longitude, double accuracy, double time) {
+        double[] fixes = empty(1);
+        set(fixes, 0, latitude, longitude, accuracy, time);
+        return fixes;
+    }
+
+    /**
+     * Returns a payload of a device going north at a constant speed, one fix per
+     * second.
+     */
+    static double[] north(int count, double latitude, double longitude, double speed, double accuracy) {
+        double[] fixes = empty(count);
+        for (int i = 0; i < count; i++) {
+            set(fixes, i, latitude + i * speed * DEGREES_PER_METER, longitude, accuracy, START_TIME + i * 1000);
+        }
+        return fixes;
+    }
+
+    static double get(double[] fixes, int index, int field) {
+        return fixes[index * LocationPayload.STRIDE + field];
+    }
+}
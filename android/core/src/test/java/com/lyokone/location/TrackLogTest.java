@@ -0,0 +1,61 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrackLogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheAppendedFixesAcrossSegments() throws IOException {
+        TrackLog log = new TrackLog(folder.getRoot(), 8, 4);
+        log.append(TestFixes.north(20, 48, 2, 1, 5), 20);
+        TrackLog.Cursor cursor = log.openCursor(0);
+        assertEquals(20 * LocationPayload.STRIDE, cursor.next(100).length);
+        assertNull(cursor.next(100));
+        log.close();
+    }
+
+    @Test
+    public void keepsOnlyTheMostRecentSegments() throws IOException {
+        TrackLog log = new TrackLog(folder.getRoot(), 8, 2);
+        log.append(TestFixes.north(40, 48, 2, 1, 5), 40);
+        double[] page = log.openCursor(0).next(100);
+        // The last segment, in progress, and the previous one
+        assertEquals(16 * LocationPayload.STRIDE, page.length);
+        assertEquals(TestFixes.START_TIME + 24000, page[LocationPayload.TIME], 0);
+        log.close();
+    }
+
+    @Test
+    public void resumesAfterTheLastValidRecord() throws IOException {
+        File directory = folder.getRoot();
+        TrackLog log = new TrackLog(directory, 64, 2);
+        log.append(TestFixes.north(5, 48, 2, 1, 5), 5);
+        log.close();
+
+        TrackLog reopened = new TrackLog(directory, 64, 2);
+        reopened.append(TestFixes.north(1, 49, 2, 1, 5), 1);
+        double[] page = reopened.openCursor(0).next(100);
+        assertEquals(6 * LocationPayload.STRIDE, page.length);
+        assertEquals(49, page[5 * LocationPayload.STRIDE + LocationPayload.LATITUDE], 0);
+        reopened.close();
+    }
+
+    @Test
+    public void filtersBySinceTime() throws IOException {
+        TrackLog log = new TrackLog(folder.getRoot(), 8, 4);
+        log.append(TestFixes.north(20, 48, 2, 1, 5), 20);
+        assertEquals(5 * LocationPayload.STRIDE, log.openCursor(TestFixes.START_TIME + 14000).next(100).length);
+        log.close();
+    }
+}
@@ -0,0 +1,30 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TrackSimplifierTest {
+
+    @Test
+    public void dropsTheFixesOfAStraightLine() {
+        TrackSimplifier simplifier = new TrackSimplifier(2);
+        assertEquals(2, simplifier.simplify(TestFixes.north(100, 48, 2, 10, 5), 100));
+    }
+
+    @Test
+    public void keepsTheTurns() {
+        TrackSimplifier simplifier = new TrackSimplifier(2);
+        double[] fixes = TestFixes.north(20, 48, 2, 10, 5);
+        // Turns east after 10 s
+        for (int i = 10; i < 20; i++) {
+            int offset = i * LocationPayload.STRIDE;
+            fixes[offset + LocationPayload.LATITUDE] = 48 + 90 * TestFixes.DEGREES_PER_METER;
+            fixes[offset + LocationPayload.LONGITUDE] = 2 + (i - 9) * 10 * TestFixes.DEGREES_PER_METER
+                    / Math.cos(Math.toRadians(48));
+        }
+        int kept = simplifier.simplify(fixes, 20);
+        assertEquals(4, kept);
+        assertEquals(TestFixes.START_TIME + 10000, TestFixes.get(fixes, 2, LocationPayload.TIME), 0);
+    }
+}
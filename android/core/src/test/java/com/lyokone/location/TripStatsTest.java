@@ -0,0 +1,64 @@
+package com.lyokone.location;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TripStatsTest {
+
+    private final TripStats trip = new TripStats();
+
+    @Test
+    public void accumulatesAMovingTrip() {
+        double[] fixes = TestFixes.north(61, 48, 2, 10, 5);
+        for (int i = 0; i < 61; i++) {
+            fixes[i * LocationPayload.STRIDE + LocationPayload.SPEED] = 10;
+        }
+        trip.update(fixes, 61);
+        Map<String, Object> snapshot = trip.snapshot();
+        assertEquals(600, (Double) snapshot.get("distance"), 1);
+        assertEquals(60000, (Double) snapshot.get("movingTime"), 0);
+        assertEquals(0, (Double) snapshot.get("stoppedTime"), 0);
+        assertEquals(10, (Double) snapshot.get("maxSpeed"), 0);
+        assertEquals(10, (Double) snapshot.get("averageMovingSpeed"), 0.1);
+        assertEquals(61L, snapshot.get("fixCount"));
+    }
+
+    @Test
+    public void classifiesTheTimeWithoutAReportedSpeed() {
+        // Unknown speed, the steps tell the device moves
+        trip.update(TestFixes.north(31, 48, 2, 10, 5), 31);
+        Map<String, Object> snapshot = trip.snapshot();
+        assertEquals(300, (Double) snapshot.get("distance"), 1);
+        assertEquals(30000, (Double) snapshot.get("movingTime"), 0);
+    }
+
+    @Test
+    public void ignoresTheJitterOfAStationaryDevice() {
+        double[] fixes = TestFixes.north(30, 48, 2, 0, 10);
+        for (int i = 0; i < 30; i++) {
+            fixes[i * LocationPayload.STRIDE + LocationPayload.LATITUDE] += (i % 2) * 5 * TestFixes.DEGREES_PER_METER;
+            fixes[i * LocationPayload.STRIDE + LocationPayload.SPEED] = 0;
+        }
+        trip.update(fixes, 30);
+        Map<String, Object> snapshot = trip.snapshot();
+        assertEquals(0, (Double) snapshot.get("distance"), 0);
+        assertEquals(29000, (Double) snapshot.get("stoppedTime"), 0);
+    }
+
+    @Test
+    public void rejectsInaccurateAndOutOfOrderFixes() {
+        double[] fixes = TestFixes.empty(3);
+        TestFixes.set(fixes, 0, 48, 2, 5, TestFixes.START_TIME + 1000);
+        TestFixes.set(fixes, 1, 48.01, 2, 100, TestFixes.START_TIME + 2000);
+        TestFixes.set(fixes, 2, 48.01, 2, 5, TestFixes.START_TIME);
+        trip.update(fixes, 3);
+        Map<String, Object> snapshot = trip.snapshot();
+        assertEquals(1L, snapshot.get("fixCount"));
+        assertEquals(2L, snapshot.get("rejectedCount"));
+        trip.reset();
+        assertEquals(0L, trip.snapshot().get("fixCount"));
+    }
+}
@@ -0,0 +1,68 @@
+package com.lyokone.location;
+
+import android.annotation.TargetApi;
+import android.location.LocationManager;
+import android.location.OnNmeaMessageListener;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+
+/**
+ * Locations of the fused provider, and NMEA sentences of the GNSS chip.
+ * <p/>
+ * The NMEA listener is registered once, however many times the updates are
+ * requested, and removed with the updates.
+ */
+final class FusedLocationSource implements LocationSource {
+
+    private final FusedLocationProviderClient client;
+    private final LocationManager locationManager;
+
+    // Registered NMEA listener, and the looper it is called on
+    @TargetApi(Build.VERSION_CODES.N)
+    private OnNmeaMessageListener nmeaListener;
+    private Looper nmeaLooper;
+
+    FusedLocationSource(FusedLocationProviderClient client, LocationManager locationManager) {
+        this.client = client;
+        this.locationManager = locationManager;
+    }
+
+    @Override
+    public boolean isDevice() {
+        return true;
+    }
+
+    @Override
+    public void requestLocationUpdates(LocationRequest request, LocationCallback callback,
+            OnNmeaMessageListener nmeaListener, Looper looper) {
+        if (nmeaListener != this.nmeaListener || looper != nmeaLooper) {
+            removeNmeaListener();
+            if (nmeaListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                locationManager.addNmeaListener(nmeaListener, new Handler(looper));
+                this.nmeaListener = nmeaListener;
+                nmeaLooper = looper;
+            }
+        }
+        // Replaces the previous request of the same callback
+        client.requestLocationUpdates(request, callback, looper);
+    }
+
+    @Override
+    public void removeLocationUpdates(LocationCallback callback) {
+        client.removeLocationUpdates(callback);
+        removeNmeaListener();
+    }
+
+    private void removeNmeaListener() {
+        if (nmeaListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            locationManager.removeNmeaListener(nmeaListener);
+        }
+        nmeaListener = null;
+        nmeaLooper = null;
+    }
+}
@@ -3,17 +3,22 @@ package com.lyokone.location;
 import android.Manifest;
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.IntentSender;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationManager;
 import android.location.OnNmeaMessageListener;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
-import android.util.SparseIntArray;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
@@ -30,7 +35,16 @@ import com.google.android.gms.location.LocationSettingsRequest;
 import com.google.android.gms.location.LocationSettingsStatusCodes;
 import com.google.android.gms.location.SettingsClient;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.StreamHandler;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
@@ -54,54 +68,144 @@ public class LocationPlugin
 
     private static final String STREAM_CHANNEL_NAME = "lyokone/locationstream";
     private static final String METHOD_CHANNEL_NAME = "lyokone/location";
+    private static final String TRACK_CHANNEL_NAME = "lyokone/locationtrack";
+    private static final String GEOFENCE_CHANNEL_NAME = "lyokone/geofencestream";
+    private static final String STATS_CHANNEL_NAME = "lyokone/locationstats";
+    private static final String CELL_CHANNEL_NAME = "lyokone/cellstream";
 
     private static final int REQUEST_PERMISSIONS_REQUEST_CODE = 34;
     private static final int REQUEST_CHECK_SETTINGS = 0x1;
 
     private static final int GPS_ENABLE_REQUEST = 0x1001;
 
+    private static final int DEFAULT_HISTORY_SIZE = 256;
+
+    // Subscription of onLocationChanged, which follows the changeSettings values
+    private static final int LEGACY_SUBSCRIPTION_ID = 0;
+
+    // Stretching of the update interval while the device is stationary
+    private static final int STATIONARY_INTERVAL_FACTOR = 6;
+
+    // One hour per segment at 1 Hz, and two days of track
+    private static final int TRACK_RECORDS_PER_SEGMENT = 3600;
+    private static final int TRACK_MAX_SEGMENTS = 48;
+    private static final int DEFAULT_TRACK_PAGE_SIZE = 500;
+
+    private static final int DEFAULT_STATS_INTERVAL = 10000;
+
     private FusedLocationProviderClient mFusedLocationClient;
+
+    // Source of the locations: the device, unless a trace is replayed
+    private LocationSource mDeviceSource;
+    private ReplayLocationSource mReplaySource;
     private SettingsClient mSettingsClient;
-    private static LocationRequest mLocationRequest;
+    // Built on first use, and again after the settings change
+    private LocationRequest mLocationRequest;
     private LocationSettingsRequest mLocationSettingsRequest;
+    // Single callback of the engine, added at most once to the source
     private LocationCallback mLocationCallback;
+    private boolean mLocationUpdatesRequested = false;
     private PluginRegistry.RequestPermissionsResultListener mPermissionsResultListener;
 
     @TargetApi(Build.VERSION_CODES.N)
     private OnNmeaMessageListener mMessageListener;
 
-    private Double mLastMslAltitude;
+    private final NmeaParser mNmeaParser = new NmeaParser();
+    // Looper the NMEA listener was last registered with, the parser is used on it
+    private Looper mNmeaLooper;
+
+    // Recent fixes, replaced when its size is changed
+    private volatile LocationHistory mLocationHistory = new LocationHistory(DEFAULT_HISTORY_SIZE);
+
+    // Durable track, opened when enabled in the settings
+    private volatile TrackLog mTrackLog;
+
+    // Optional stage smoothing the fixes and rejecting the outliers
+    private volatile KalmanFilter mKalmanFilter;
+
+    // Optional stage dropping the redundant fixes, and encoder of the delta format
+    private volatile TrackSimplifier mTrackSimplifier;
+    private final DeltaEncoder mDeltaEncoder = new DeltaEncoder();
+
+    // Adjusts the request to the motion of the device, when enabled
+    private volatile MotionStateDetector mMotionStateDetector;
+
+    private final GeofenceEngine mGeofenceEngine = new GeofenceEngine();
+    private EventChannel.EventSink geofenceEvents;
+
+    // Reports the cell transitions on the cell channel, when enabled
+    private volatile CellTracker mCellTracker;
+    private EventChannel.EventSink cellEvents;
+
+    // Listeners of the stream, sharing the same provider request
+    private final SubscriptionRegistry mSubscriptions = new SubscriptionRegistry();
+
+    private final LocationStats mStats = new LocationStats();
+
+    // Odometer of the trip, fed with every fix kept by the Kalman filter
+    private final TripStats mTripStats = new TripStats();
+
+    // Pacing of the stream, only accessed on the main thread
+    private DeliveryQueue mDeliveryQueue = new DeliveryQueue(DeliveryQueue.POLICY_ALL, 0, 0);
+    private final Runnable mDeliveryTask = this::drainDeliveries;
+    private final DeliveryQueue.Sink mDeliverySink = this::sendPayload;
 
     // Parameters of the request
-    private static long update_interval_in_milliseconds = 5000;
-    private static long fastest_update_interval_in_milliseconds = update_interval_in_milliseconds / 2;
-    private static Integer location_accuracy = LocationRequest.PRIORITY_HIGH_ACCURACY;
-    private static float distanceFilter = 0f;
+    private long update_interval_in_milliseconds = 5000;
+    private long fastest_update_interval_in_milliseconds = update_interval_in_milliseconds / 2;
+    private Integer location_accuracy = LocationRequest.PRIORITY_HIGH_ACCURACY;
+    private float distanceFilter = 0f;
+
+    // Batching of the delivered locations, disabled when the max wait time is 0
+    private long max_wait_time_in_milliseconds = 0;
+    private int max_batch_size = 0;
+
+    private int payload_format = LocationPayload.FORMAT_MAP;
+
+    // Processing of the locations and NMEA sentences outside of the main thread
+    private boolean background_processing = false;
+    private int thread_priority = Process.THREAD_PRIORITY_BACKGROUND;
 
     private EventChannel.EventSink events;
     private MethodChannel.Result result;
 
+    // One-shot requests waiting for the next fix, answered together. Only
+    // accessed on the main thread.
+    private final List<MethodChannel.Result> mPendingLocationResults = new ArrayList<>();
+
+    // Most recent fix received, packed, answering the one-shot requests
+    // accepting a cached location
+    private volatile double[] mLastFix;
+
     private int locationPermissionState;
 
     private Activity activity;
     private MethodChannel methodChannel;
     private EventChannel eventChannel;
+    private EventChannel trackChannel;
+    private EventChannel geofenceChannel;
+    private EventChannel statsChannel;
+    private final StatsStreamHandler statsStreamHandler = new StatsStreamHandler();
+    private EventChannel cellChannel;
+    private Context applicationContext;
 
     private boolean waitingForPermission = false;
     private LocationManager locationManager;
 
-    private SparseIntArray mapFlutterAccuracy = new SparseIntArray();
-
-    public LocationPlugin() {
-
-        this.mapFlutterAccuracy.put(0, LocationRequest.PRIORITY_NO_POWER);
-        this.mapFlutterAccuracy.put(1, LocationRequest.PRIORITY_LOW_POWER);
-        this.mapFlutterAccuracy.put(2, LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
-        this.mapFlutterAccuracy.put(3, LocationRequest.PRIORITY_HIGH_ACCURACY);
-        this.mapFlutterAccuracy.put(4, LocationRequest.PRIORITY_HIGH_ACCURACY);
+    // Outcome of the last settings check and service state, valid until the
+    // providers or the request change. Only accessed on the main thread.
+    private boolean mSettingsSatisfied = false;
+    private Boolean mServiceEnabled;
+    private final BroadcastReceiver mProvidersChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidateSettingsState();
+        }
+    };
 
-        setupLocationHandlers();
-    }
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread processingThread;
+    private Handler processingHandler;
 
     private void tearUpChannel(BinaryMessenger binaryMessenger) {
         methodChannel = new MethodChannel(binaryMessenger, METHOD_CHANNEL_NAME);
@@ -110,26 +214,90 @@ public class LocationPlugin
         eventChannel = new EventChannel(binaryMessenger, STREAM_CHANNEL_NAME);
         eventChannel.setStreamHandler(this);
 
+        trackChannel = new EventChannel(binaryMessenger, TRACK_CHANNEL_NAME);
+        trackChannel.setStreamHandler(new TrackReplayHandler());
+
+        geofenceChannel = new EventChannel(binaryMessenger, GEOFENCE_CHANNEL_NAME);
+        geofenceChannel.setStreamHandler(new EventChannel.StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventChannel.EventSink sink) {
+                geofenceEvents = sink;
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                geofenceEvents = null;
+            }
+        });
+
+        statsChannel = new EventChannel(binaryMessenger, STATS_CHANNEL_NAME);
+        statsChannel.setStreamHandler(statsStreamHandler);
+
+        cellChannel = new EventChannel(binaryMessenger, CELL_CHANNEL_NAME);
+        cellChannel.setStreamHandler(new EventChannel.StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventChannel.EventSink sink) {
+                cellEvents = sink;
+                updateLocationConsumers();
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                cellEvents = null;
+                updateLocationConsumers();
+            }
+        });
     }
 
     private void tearDownChannel() {
         methodChannel = null;
         eventChannel = null;
+        trackChannel = null;
+        geofenceChannel = null;
+        geofenceEvents = null;
+        cellChannel = null;
+        cellEvents = null;
+        statsChannel = null;
+
+        // The engine is gone, nothing is sent anymore. The updates are stopped
+        // before their looper quits and the track log they write to closes.
+        stopLocationUpdates();
+        statsStreamHandler.onCancel(null);
+        mainHandler.removeCallbacks(mDeliveryTask);
+        mDeliveryQueue.clear();
+
+        if (mTrackLog != null) {
+            mTrackLog.close();
+            mTrackLog = null;
+        }
 
+        quitProcessingThread();
     }
 
     private void tearUpActivity(Activity activity, PermissionsRegistry permissionRegistry) {
         this.activity = activity;
 
         permissionRegistry.addListener(getPermissionsResultListener());
-        mFusedLocationClient = LocationServices.getFusedLocationProviderClient(activity);
-        mSettingsClient = LocationServices.getSettingsClient(activity);
         locationManager = (LocationManager) activity.getSystemService(Context.LOCATION_SERVICE);
+        activity.registerReceiver(mProvidersChangedReceiver,
+                new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION));
+
+        // Resumes the updates stopped by a configuration change
+        if (hasLocationConsumers() && checkPermissions()) {
+            startRequestingLocation();
+        }
     }
 
     private void tearDownActivity() {
+        // The clients are bound to the activity, their registrations go with it
+        stopLocationUpdates();
+        if (activity != null) {
+            activity.unregisterReceiver(mProvidersChangedReceiver);
+        }
+        invalidateSettingsState();
         this.activity = null;
         mFusedLocationClient = null;
+        mDeviceSource = null;
         mSettingsClient = null;
         locationManager = null;
     }
@@ -141,13 +309,88 @@ public class LocationPlugin
 
         case "changeSettings":
             try {
-                location_accuracy = mapFlutterAccuracy.get(call.<Integer>argument("accuracy"));
+                location_accuracy = LocationPriority.fromFlutterAccuracy(call.<Integer>argument("accuracy"));
                 update_interval_in_milliseconds = call.<Integer>argument("interval").longValue();
                 fastest_update_interval_in_milliseconds = update_interval_in_milliseconds / 2;
 
                 distanceFilter = call.<Double>argument("distanceFilter").floatValue();
+                if (mSubscriptions.contains(LEGACY_SUBSCRIPTION_ID)) {
+                    mSubscriptions.put(LEGACY_SUBSCRIPTION_ID, location_accuracy, update_interval_in_milliseconds,
+                            distanceFilter);
+                }
 
-                setupLocationHandlers();
+                max_wait_time_in_milliseconds = call.<Integer>argument("maxWaitTime").longValue();
+                max_batch_size = call.<Integer>argument("batchSize");
+                payload_format = call.<Integer>argument("payloadFormat");
+                boolean backgroundProcessing = call.<Boolean>argument("backgroundProcessing");
+                boolean looperChanged = backgroundProcessing != background_processing;
+                background_processing = backgroundProcessing;
+                thread_priority = call.<Integer>argument("threadPriority");
+                if (processingThread != null) {
+                    Process.setThreadPriority(processingThread.getThreadId(), thread_priority);
+                }
+
+                int historySize = call.<Integer>argument("historySize");
+                if (historySize != mLocationHistory.capacity()) {
+                    mLocationHistory = new LocationHistory(historySize);
+                }
+
+                setTrackLogEnabled(call.<Boolean>argument("trackLog"));
+
+                if (!call.<Boolean>argument("kalmanFilter")) {
+                    mKalmanFilter = null;
+                } else {
+                    double outlierGate = call.<Double>argument("outlierGate");
+                    double maxAccuracy = call.<Double>argument("maxAccuracy");
+                    if (mKalmanFilter == null || mKalmanFilter.getGate() != outlierGate
+                            || mKalmanFilter.getMaxAccuracy() != maxAccuracy) {
+                        mKalmanFilter = new KalmanFilter(outlierGate, maxAccuracy);
+                    }
+                }
+
+                if (!call.<Boolean>argument("adaptive")) {
+                    mMotionStateDetector = null;
+                } else if (mMotionStateDetector == null) {
+                    mMotionStateDetector = new MotionStateDetector();
+                }
+
+                double simplifyTolerance = call.<Double>argument("simplifyTolerance");
+                if (simplifyTolerance <= 0) {
+                    mTrackSimplifier = null;
+                } else if (mTrackSimplifier == null || mTrackSimplifier.getTolerance() != simplifyTolerance) {
+                    mTrackSimplifier = new TrackSimplifier(simplifyTolerance);
+                }
+
+                int cellPrecision = call.<Integer>argument("cellPrecision");
+                if (cellPrecision <= 0) {
+                    mCellTracker = null;
+                } else if (mCellTracker == null || mCellTracker.getPrecision() != cellPrecision) {
+                    mCellTracker = new CellTracker(cellPrecision);
+                }
+
+                // The waiting payloads go through the new policy
+                DeliveryQueue deliveryQueue = new DeliveryQueue(call.<Integer>argument("deliveryPolicy"),
+                        call.<Integer>argument("deliveryCapacity"),
+                        call.<Integer>argument("minEmitInterval").longValue());
+                mStats.add(LocationStats.FIXES_CONFLATED, mDeliveryQueue.transferTo(deliveryQueue));
+                mDeliveryQueue = deliveryQueue;
+                drainDeliveries();
+
+                boolean requestChanged = updateLocationRequest();
+                if (looperChanged) {
+                    // The updates are received on the looper they were requested
+                    // with: removed from the previous one, before the processing
+                    // thread quits, and requested again below
+                    stopLocationUpdates();
+                    if (!background_processing) {
+                        quitProcessingThread();
+                    }
+                } else if (requestChanged && mLocationUpdatesRequested) {
+                    // Applies the new request to the running updates
+                    startRequestingLocation();
+                }
+                // The track log or the cell tracking may have been enabled or disabled
+                updateLocationConsumers();
 
                 result.success(1);
             } catch (Exception e) {
@@ -156,12 +399,112 @@ public class LocationPlugin
             }
             break;
 
+        case "addSubscription":
+            int id = call.<Integer>argument("id");
+            if (id == LEGACY_SUBSCRIPTION_ID) {
+                mSubscriptions.put(id, location_accuracy, update_interval_in_milliseconds, distanceFilter);
+            } else {
+                mSubscriptions.put(id, LocationPriority.fromFlutterAccuracy(call.<Integer>argument("accuracy")),
+                        call.<Integer>argument("interval").longValue(), call.<Double>argument("distanceFilter"));
+            }
+            updateSubscriptions();
+            result.success(1);
+            break;
+
+        case "removeSubscription":
+            mSubscriptions.remove(call.<Integer>argument("id"));
+            updateSubscriptions();
+            result.success(1);
+            break;
+
+        case "acknowledgeLocations":
+            mDeliveryQueue.acknowledge();
+            drainDeliveries();
+            result.success(1);
+            break;
+
+        case "getStats":
+            result.success(mStats.snapshot());
+            break;
+
+        case "resetStats":
+            mStats.reset();
+            result.success(1);
+            break;
+
+        case "getTripStats":
+            result.success(mTripStats.snapshot());
+            break;
+
+        case "resetTrip":
+            mTripStats.reset();
+            result.success(1);
+            break;
+
+        case "getHistory":
+            result.success(mLocationHistory.query(call.<Double>argument("sinceTime"),
+                    call.<Integer>argument("maxCount")));
+            break;
+
+        case "clearTrack":
+            try {
+                if (mTrackLog != null) {
+                    mTrackLog.clear();
+                } else {
+                    deleteRecursively(getTrackDirectory());
+                }
+                result.success(1);
+            } catch (IOException e) {
+                result.error("TRACK_ERROR", "The track couldn't be cleared: " + e.getMessage(), null);
+            }
+            break;
+
+        case "addGeofences":
+            try {
+                for (Map<String, Object> geofence : call.<List<Map<String, Object>>>argument("geofences")) {
+                    addGeofence(geofence);
+                }
+                updateLocationConsumers();
+                result.success(1);
+            } catch (Exception e) {
+                result.error("GEOFENCE_ERROR", "The geofences couldn't be added: " + e.getMessage(), null);
+            }
+            break;
+
+        case "removeGeofences":
+            mGeofenceEngine.remove(call.<List<String>>argument("ids"));
+            updateLocationConsumers();
+            result.success(1);
+            break;
+
+        case "clearGeofences":
+            mGeofenceEngine.clear();
+            updateLocationConsumers();
+            result.success(1);
+            break;
+
+        case "startReplay":
+            Double replaySpeed = call.argument("speed");
+            Boolean replayLoop = call.argument("loop");
+            startReplay(call.<String>argument("path"), call.<Integer>argument("format"),
+                    replaySpeed != null ? replaySpeed : 1, replayLoop != null && replayLoop, result);
+            break;
+
+        case "stopReplay":
+            replaceLocationSource(null);
+            result.success(1);
+            break;
+
         case "getLocation":
-            this.result = result;
+            long maxAge = call.hasArgument("maxAge") ? call.<Integer>argument("maxAge").longValue() : 0;
+            double minAccuracy = call.hasArgument("minAccuracy") ? call.<Double>argument("minAccuracy") : 0;
             if (!checkPermissions()) {
+                mPendingLocationResults.add(result);
                 requestPermissions();
+            } else if (maxAge > 0) {
+                getCachedLocation(result, maxAge, minAccuracy);
             } else {
-                startRequestingLocation();
+                requestSingleLocation(result);
             }
             break;
 
@@ -202,17 +545,20 @@ public class LocationPlugin
         }
     }
 
-    private void setupLocationHandlers() {
-        createLocationCallback();
-        createLocationRequest();
-        createPermissionsResultListener();
-        buildLocationSettingsRequest();
-    }
-
     private PluginRegistry.RequestPermissionsResultListener getPermissionsResultListener() {
+        if (mPermissionsResultListener == null) {
+            createPermissionsResultListener();
+        }
         return mPermissionsResultListener;
     }
 
+    private LocationCallback getLocationCallback() {
+        if (mLocationCallback == null) {
+            createLocationCallback();
+        }
+        return mLocationCallback;
+    }
+
     private void createPermissionsResultListener() {
         mPermissionsResultListener = (requestCode, permissions, grantResults) -> {
             if (requestCode == REQUEST_PERMISSIONS_REQUEST_CODE && permissions.length == 1
@@ -227,24 +573,24 @@ public class LocationPlugin
                     result = null;
                 }
                 if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                    if (result != null) {
+                    if (!mPendingLocationResults.isEmpty()) {
                         startRequestingLocation();
                     } else if (events != null) {
                         startRequestingLocation();
                     }
                 } else {
                     if (!shouldShowRequestPermissionRationale()) {
-                        if (result != null) {
-                            result.error("PERMISSION_DENIED_NEVER_ASK",
-                                    "Location permission denied forever- please open app settings", null);
+                        if (!mPendingLocationResults.isEmpty()) {
+                            failPendingLocations("PERMISSION_DENIED_NEVER_ASK",
+                                    "Location permission denied forever- please open app settings");
                         } else if (events != null) {
                             events.error("PERMISSION_DENIED_NEVER_ASK",
                                     "Location permission denied forever - please open app settings", null);
                             events = null;
                         }
                     } else {
-                        if (result != null) {
-                            result.error("PERMISSION_DENIED", "Location permission denied", null);
+                        if (!mPendingLocationResults.isEmpty()) {
+                            failPendingLocations("PERMISSION_DENIED", "Location permission denied");
                         } else if (events != null) {
                             events.error("PERMISSION_DENIED", "Location permission denied", null);
                             events = null;
@@ -265,54 +611,566 @@ public class LocationPlugin
             @Override
             public void onLocationResult(LocationResult locationResult) {
                 super.onLocationResult(locationResult);
-                Location location = locationResult.getLastLocation();
-                HashMap<String, Double> loc = new HashMap<>();
-                loc.put("latitude", location.getLatitude());
-                loc.put("longitude", location.getLongitude());
-                loc.put("accuracy", (double) location.getAccuracy());
-
-                // Using NMEA Data to get MSL level altitude
-                if (mLastMslAltitude == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-                    loc.put("altitude", location.getAltitude());
-                } else {
-                    loc.put("altitude", mLastMslAltitude);
+                long startTime = System.nanoTime();
+                List<Location> locations = locationResult.getLocations();
+                int count = locations.size();
+                double[] fixes = new double[count * LocationPayload.STRIDE];
+                for (int i = 0; i < count; i++) {
+                    Location location = locations.get(i);
+                    writeLocation(fixes, i, location, i == count - 1);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                        mStats.record(LocationStats.FIX_AGE,
+                                (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000);
+                    }
+                }
+                mStats.add(LocationStats.FIXES_RECEIVED, count);
+
+                KalmanFilter filter = mKalmanFilter;
+                if (filter != null) {
+                    int received = count;
+                    count = filter.filter(fixes, count);
+                    mStats.add(LocationStats.FIXES_DROPPED, received - count);
+                    if (count == 0) {
+                        // Only outliers, waiting for the next fixes
+                        mStats.record(LocationStats.PROCESSING_TIME, (System.nanoTime() - startTime) / 1000);
+                        return;
+                    }
                 }
+                if (mGeofenceEngine.size() > 0) {
+                    evaluateGeofences(fixes, count);
+                }
+                mTripStats.update(fixes, count);
+
+                mLastFix = Arrays.copyOfRange(fixes, (count - 1) * LocationPayload.STRIDE,
+                        count * LocationPayload.STRIDE);
 
-                loc.put("speed", (double) location.getSpeed());
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    loc.put("speed_accuracy", (double) location.getSpeedAccuracyMetersPerSecond());
+                MotionStateDetector detector = mMotionStateDetector;
+                if (detector != null && detector.update(fixes, count)) {
+                    runOnMainThread(() -> onMotionStateChanged(detector));
                 }
-                loc.put("heading", (double) location.getBearing());
-                loc.put("time", (double) location.getTime());
 
-                if (result != null) {
-                    result.success(loc);
-                    result = null;
+                // Payloads are built on the processing thread, only the delivery has to be
+                // done on the main thread. A one-shot request is answered with the latest fix
+                // even when it is dropped by the simplification.
+                final Object latest = encodeLocation(fixes, count - 1);
+
+                TrackSimplifier simplifier = mTrackSimplifier;
+                int kept = simplifier != null ? simplifier.simplify(fixes, count) : count;
+                mStats.add(LocationStats.FIXES_DROPPED, count - kept);
+
+                mLocationHistory.add(fixes, kept);
+
+                TrackLog trackLog = mTrackLog;
+                if (trackLog != null) {
+                    try {
+                        trackLog.append(fixes, kept);
+                    } catch (IOException e) {
+                        Log.e(METHOD_CHANNEL_NAME, "Unable to write the track: " + e.getMessage());
+                    }
+                }
+
+                // Cells are reported on their own stream, the locations sent are unchanged
+                CellTracker cellTracker = mCellTracker;
+                if (cellTracker != null && kept > 0) {
+                    trackCells(cellTracker, fixes, kept);
                 }
-                if (events != null) {
-                    events.success(loc);
+
+                final List<Object> payloads = new ArrayList<>();
+                if (kept == 0) {
+                    // Every fix was redundant, nothing is streamed
+                } else if (max_wait_time_in_milliseconds > 0) {
+                    // Batching mode, every fix of the result is sent, in as few events as possible
+                    int batchSize = max_batch_size > 0 ? max_batch_size : kept;
+                    for (int start = 0; start < kept; start += batchSize) {
+                        int end = Math.min(start + batchSize, kept);
+                        addTargetedPayload(payloads, encodeBatch(fixes, start, end), fixes, start, end);
+                    }
                 } else {
-                    mFusedLocationClient.removeLocationUpdates(mLocationCallback);
+                    addTargetedPayload(payloads, kept == count ? latest : encodeLocation(fixes, kept - 1), fixes,
+                            kept - 1, kept);
                 }
+                mStats.record(LocationStats.PROCESSING_TIME, (System.nanoTime() - startTime) / 1000);
+                runOnMainThread(() -> deliverLocations(latest, payloads));
             }
         };
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             mMessageListener = (message, timestamp) -> {
-                if (message.startsWith("$")) {
-                    String[] tokens = message.split(",");
-                    String type = tokens[0];
-
-                    // Parse altitude above sea level, Detailed description of NMEA string here
-                    // http://aprs.gids.nl/nmea/#gga
-                    if (type.startsWith("$GPGGA")) {
-                        if (!tokens[9].isEmpty()) {
-                            mLastMslAltitude = Double.parseDouble(tokens[9]);
-                        }
+                if (mNmeaParser.parse(message)) {
+                    mStats.increment(LocationStats.NMEA_SENTENCES);
+                }
+            };
+        }
+    }
+
+    /**
+     * Sends the payloads of a location result to the pending requests and to the
+     * stream. Must be called on the main thread.
+     */
+    private void deliverLocations(Object latest, List<Object> payloads) {
+        for (MethodChannel.Result pending : mPendingLocationResults) {
+            pending.success(latest);
+        }
+        mPendingLocationResults.clear();
+        if (events != null && mSubscriptions.size() > 0) {
+            for (Object payload : payloads) {
+                mStats.add(LocationStats.FIXES_CONFLATED, mDeliveryQueue.offer(payload));
+            }
+            drainDeliveries();
+        } else {
+            releaseLocationUpdates();
+        }
+    }
+
+    /**
+     * Sends the payloads the delivery policy allows, and schedules the next ones
+     * when they have to wait for the minimum interval.
+     */
+    private void drainDeliveries() {
+        mainHandler.removeCallbacks(mDeliveryTask);
+        if (events == null) {
+            return;
+        }
+        long delay = mDeliveryQueue.drain(SystemClock.elapsedRealtime(), mDeliverySink);
+        if (delay > 0) {
+            mainHandler.postDelayed(mDeliveryTask, delay);
+        }
+    }
+
+    private void sendPayload(Object payload) {
+        mStats.add(LocationStats.FIXES_EMITTED, LocationPayload.fixCount(payload));
+        events.success(payload);
+    }
+
+    /**
+     * Answers a one-shot request with the last fix received, or else the last
+     * location known to the provider, when recent and accurate enough. Requests
+     * a new fix otherwise.
+     *
+     * @param maxAge      age in milliseconds above which a fix is too old.
+     * @param minAccuracy accuracy in meters above which a fix is not accurate
+     *                    enough, any accuracy when 0 or less.
+     */
+    private void getCachedLocation(final MethodChannel.Result result, final long maxAge, final double minAccuracy) {
+        double[] lastFix = mLastFix;
+        if (isAcceptable(lastFix, maxAge, minAccuracy)) {
+            mStats.increment(LocationStats.REQUESTS_CACHED);
+            result.success(encodeLocation(lastFix, 0));
+            return;
+        }
+        if (!getLocationSource().isDevice()) {
+            // The last location of the device is not part of the trace
+            requestSingleLocation(result);
+            return;
+        }
+        mFusedLocationClient.getLastLocation().addOnSuccessListener(location -> {
+            if (location != null) {
+                double[] fix = new double[LocationPayload.STRIDE];
+                writeLocation(fix, 0, location, false);
+                if (isAcceptable(fix, maxAge, minAccuracy)) {
+                    mStats.increment(LocationStats.REQUESTS_CACHED);
+                    result.success(encodeLocation(fix, 0));
+                    return;
+                }
+            }
+            requestSingleLocation(result);
+        }).addOnFailureListener(e -> requestSingleLocation(result));
+    }
+
+    private static boolean isAcceptable(double[] fix, long maxAge, double minAccuracy) {
+        if (fix == null || System.currentTimeMillis() - fix[LocationPayload.TIME] > maxAge) {
+            return false;
+        }
+        // Also rejects an unknown accuracy
+        return minAccuracy <= 0 || fix[LocationPayload.ACCURACY] <= minAccuracy;
+    }
+
+    /**
+     * Answers a one-shot request with the next fix. Concurrent requests share the
+     * same provider request, which is only made when no other request is pending
+     * and the stream isn't already receiving the updates.
+     */
+    private void requestSingleLocation(MethodChannel.Result result) {
+        mPendingLocationResults.add(result);
+        if (mPendingLocationResults.size() > 1) {
+            mStats.increment(LocationStats.REQUESTS_COALESCED);
+            return;
+        }
+        if (events == null || mSubscriptions.size() == 0) {
+            startRequestingLocation();
+        } else {
+            mStats.increment(LocationStats.REQUESTS_COALESCED);
+        }
+    }
+
+    private void failPendingLocations(String errorCode, String errorMessage) {
+        for (MethodChannel.Result pending : mPendingLocationResults) {
+            pending.error(errorCode, errorMessage, null);
+        }
+        mPendingLocationResults.clear();
+    }
+
+    /**
+     * Adds a payload of the fixes between {@code start} (inclusive) and
+     * {@code end} (exclusive) to stream. When several subscriptions share the
+     * stream, the payload is only sent to the ones wanting its last fix, whose
+     * ids are sent along.
+     */
+    private void addTargetedPayload(List<Object> payloads, Object payload, double[] fixes, int start, int end) {
+        if (mSubscriptions.size() <= 1) {
+            payloads.add(payload);
+            return;
+        }
+        int offset = (end - 1) * LocationPayload.STRIDE;
+        int[] targets = mSubscriptions.select(fixes[offset + LocationPayload.LATITUDE],
+                fixes[offset + LocationPayload.LONGITUDE], fixes[offset + LocationPayload.TIME]);
+        if (targets.length == 0) {
+            mStats.add(LocationStats.FIXES_DROPPED, end - start);
+            return;
+        }
+        HashMap<String, Object> targeted = new HashMap<>();
+        targeted.put("targets", targets);
+        targeted.put("payload", payload);
+        payloads.add(targeted);
+    }
+
+    /**
+     * Applies the merged settings of the subscriptions to the provider request,
+     * which is stopped when there is no subscription anymore.
+     */
+    private void updateSubscriptions() {
+        boolean changed = updateLocationRequest();
+        if (activity == null || events == null) {
+            return;
+        }
+        if (mSubscriptions.size() == 0) {
+            releaseLocationUpdates();
+        } else if ((changed || !mLocationUpdatesRequested) && checkPermissions()) {
+            startRequestingLocation();
+        }
+    }
+
+    /**
+     * Rebuilds the request for the new motion state and replaces the current
+     * updates with it, without going through Flutter.
+     */
+    private void onMotionStateChanged(MotionStateDetector detector) {
+        if (detector != mMotionStateDetector) {
+            // Adaptive mode changed in the meantime
+            return;
+        }
+        if (updateLocationRequest() && mLocationUpdatesRequested) {
+            requestLocationUpdates();
+        }
+    }
+
+    /**
+     * Tests the fixes against the geofences and sends the transitions to the
+     * geofence stream.
+     */
+    private void evaluateGeofences(double[] fixes, int count) {
+        final List<HashMap<String, Object>> transitions = new ArrayList<>();
+        mGeofenceEngine.evaluate(fixes, count, (id, transition, latitude, longitude, time) -> {
+            HashMap<String, Object> event = new HashMap<>();
+            event.put("id", id);
+            event.put("transition", transition);
+            event.put("latitude", latitude);
+            event.put("longitude", longitude);
+            event.put("time", time);
+            transitions.add(event);
+        });
+        if (!transitions.isEmpty()) {
+            runOnMainThread(() -> {
+                if (geofenceEvents != null) {
+                    for (HashMap<String, Object> event : transitions) {
+                        geofenceEvents.success(event);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the cell transitions of the fixes to the cell channel, the fixes
+     * themselves being left unchanged.
+     */
+    private void trackCells(CellTracker cellTracker, double[] fixes, int count) {
+        final List<HashMap<String, Object>> changes = new ArrayList<>();
+        cellTracker.update(fixes, count, (cell, previous, latitude, longitude, time) -> {
+            HashMap<String, Object> event = new HashMap<>();
+            event.put("cell", cell);
+            event.put("previous", previous);
+            event.put("neighbors", CellTracker.neighbors(latitude, longitude, cellTracker.getPrecision()));
+            event.put("latitude", latitude);
+            event.put("longitude", longitude);
+            event.put("time", time);
+            changes.add(event);
+        });
+        if (!changes.isEmpty()) {
+            runOnMainThread(() -> {
+                if (cellEvents != null) {
+                    for (HashMap<String, Object> event : changes) {
+                        cellEvents.success(event);
+                    }
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addGeofence(Map<String, Object> geofence) {
+        String id = (String) geofence.get("id");
+        Number dwellTime = (Number) geofence.get("dwellTime");
+        long dwell = dwellTime == null ? 0 : dwellTime.longValue();
+        List<Number> polygon = (List<Number>) geofence.get("polygon");
+        if (polygon != null) {
+            double[] vertices = new double[polygon.size()];
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] = polygon.get(i).doubleValue();
+            }
+            mGeofenceEngine.addPolygon(id, vertices, dwell);
+        } else {
+            mGeofenceEngine.addCircle(id, ((Number) geofence.get("latitude")).doubleValue(),
+                    ((Number) geofence.get("longitude")).doubleValue(),
+                    ((Number) geofence.get("radius")).doubleValue(), dwell);
+        }
+    }
+
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mainHandler.post(runnable);
+        }
+    }
+
+    /**
+     * Returns the looper on which the locations and NMEA sentences are received,
+     * starting the processing thread if needed.
+     */
+    private Looper getProcessingLooper() {
+        if (!background_processing) {
+            return Looper.myLooper();
+        }
+        return getProcessingHandler().getLooper();
+    }
+
+    private Handler getProcessingHandler() {
+        if (processingThread == null) {
+            processingThread = new HandlerThread("LocationProcessing", thread_priority);
+            processingThread.start();
+            processingHandler = new Handler(processingThread.getLooper());
+        }
+        return processingHandler;
+    }
+
+    /**
+     * Quits the processing thread once the messages already queued are handled,
+     * a new one being started on next use.
+     */
+    private void quitProcessingThread() {
+        if (processingThread != null) {
+            processingThread.quitSafely();
+            processingThread = null;
+            processingHandler = null;
+        }
+    }
+
+    private File getTrackDirectory() {
+        return new File(applicationContext.getFilesDir(), "location_track");
+    }
+
+    private void setTrackLogEnabled(boolean enabled) throws IOException {
+        if (enabled && mTrackLog == null) {
+            mTrackLog = new TrackLog(getTrackDirectory(), TRACK_RECORDS_PER_SEGMENT, TRACK_MAX_SEGMENTS);
+        } else if (!enabled && mTrackLog != null) {
+            mTrackLog.close();
+            mTrackLog = null;
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Streams the durable track page by page. Pages are read on the processing
+     * thread, the next one being read once the previous one has been delivered.
+     */
+    private class TrackReplayHandler implements EventChannel.StreamHandler {
+
+        private TrackLog.Cursor cursor;
+
+        @Override
+        public void onListen(Object arguments, final EventChannel.EventSink sink) {
+            double sinceTime = 0;
+            int pageSize = DEFAULT_TRACK_PAGE_SIZE;
+            if (arguments instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) arguments;
+                if (map.get("sinceTime") instanceof Number) {
+                    sinceTime = ((Number) map.get("sinceTime")).doubleValue();
+                }
+                if (map.get("pageSize") instanceof Number) {
+                    pageSize = ((Number) map.get("pageSize")).intValue();
+                }
+            }
+            TrackLog trackLog = mTrackLog;
+            if (trackLog == null) {
+                sink.endOfStream();
+                return;
+            }
+            final TrackLog.Cursor replay = trackLog.openCursor(sinceTime);
+            final int size = Math.max(1, pageSize);
+            cursor = replay;
+            getProcessingHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    final Runnable next = this;
+                    double[] page;
+                    try {
+                        page = replay.next(size);
+                    } catch (IOException e) {
+                        final String message = e.getMessage();
+                        mainHandler.post(() -> {
+                            if (cursor == replay) {
+                                sink.error("TRACK_ERROR", "The track couldn't be read: " + message, null);
+                                cursor = null;
+                            }
+                        });
+                        return;
                     }
+                    final double[] delivered = page;
+                    mainHandler.post(() -> {
+                        if (cursor != replay) {
+                            // Cancelled in the meantime
+                            return;
+                        }
+                        if (delivered == null) {
+                            sink.endOfStream();
+                            cursor = null;
+                        } else {
+                            sink.success(delivered);
+                            getProcessingHandler().post(next);
+                        }
+                    });
+                }
+            });
+        }
+
+        @Override
+        public void onCancel(Object arguments) {
+            cursor = null;
+        }
+    }
+
+    /**
+     * Sends a snapshot of the stats at a fixed interval, on the main thread.
+     */
+    private class StatsStreamHandler implements EventChannel.StreamHandler {
+
+        private Runnable task;
+
+        @Override
+        public void onListen(Object arguments, final EventChannel.EventSink sink) {
+            int interval = DEFAULT_STATS_INTERVAL;
+            if (arguments instanceof Map && ((Map<?, ?>) arguments).get("interval") instanceof Number) {
+                interval = ((Number) ((Map<?, ?>) arguments).get("interval")).intValue();
+            }
+            final long delay = Math.max(100, interval);
+            task = new Runnable() {
+                @Override
+                public void run() {
+                    sink.success(mStats.snapshot());
+                    mainHandler.postDelayed(this, delay);
                 }
             };
+            mainHandler.postDelayed(task, delay);
+        }
+
+        @Override
+        public void onCancel(Object arguments) {
+            if (task != null) {
+                mainHandler.removeCallbacks(task);
+                task = null;
+            }
+        }
+    }
+
+    /**
+     * Writes a location at the given index of a packed payload. The values from
+     * NMEA are only relevant for the most recent fix of a result.
+     */
+    private void writeLocation(double[] fixes, int index, Location location, boolean isLatest) {
+        int offset = index * LocationPayload.STRIDE;
+        fixes[offset + LocationPayload.LATITUDE] = location.getLatitude();
+        fixes[offset + LocationPayload.LONGITUDE] = location.getLongitude();
+        fixes[offset + LocationPayload.ACCURACY] = location.getAccuracy();
+
+        // Using NMEA Data to get MSL level altitude
+        boolean useNmea = isLatest && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+        double mslAltitude = useNmea ? mNmeaParser.getMslAltitude() : Double.NaN;
+        if (Double.isNaN(mslAltitude)) {
+            fixes[offset + LocationPayload.ALTITUDE] = location.getAltitude();
+        } else {
+            fixes[offset + LocationPayload.ALTITUDE] = mslAltitude;
+        }
+
+        fixes[offset + LocationPayload.SPEED] = location.hasSpeed() ? location.getSpeed() : Double.NaN;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            fixes[offset + LocationPayload.SPEED_ACCURACY] = location.getSpeedAccuracyMetersPerSecond();
+        } else {
+            fixes[offset + LocationPayload.SPEED_ACCURACY] = Double.NaN;
+        }
+        fixes[offset + LocationPayload.HEADING] = location.hasBearing() ? location.getBearing() : Double.NaN;
+        fixes[offset + LocationPayload.TIME] = location.getTime();
+
+        int satellites = useNmea ? mNmeaParser.getSatellitesUsed() : -1;
+        fixes[offset + LocationPayload.SATELLITES] = satellites < 0 ? Double.NaN : satellites;
+        fixes[offset + LocationPayload.HDOP] = useNmea ? mNmeaParser.getHdop() : Double.NaN;
+        fixes[offset + LocationPayload.VDOP] = useNmea ? mNmeaParser.getVdop() : Double.NaN;
+    }
+
+    private Object encodeLocation(double[] fixes, int index) {
+        long startTime = System.nanoTime();
+        Object payload;
+        if (payload_format == LocationPayload.FORMAT_PACKED) {
+            payload = LocationPayload.slice(fixes, index, index + 1);
+        } else if (payload_format == LocationPayload.FORMAT_DELTA) {
+            payload = mDeltaEncoder.encode(fixes, index, index + 1);
+        } else {
+            payload = LocationPayload.toMap(fixes, index);
         }
+        recordSerialization(startTime, payload);
+        return payload;
+    }
+
+    private Object encodeBatch(double[] fixes, int start, int end) {
+        long startTime = System.nanoTime();
+        Object payload;
+        if (payload_format == LocationPayload.FORMAT_PACKED) {
+            payload = LocationPayload.slice(fixes, start, end);
+        } else if (payload_format == LocationPayload.FORMAT_DELTA) {
+            payload = mDeltaEncoder.encode(fixes, start, end);
+        } else {
+            List<HashMap<String, Double>> batch = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                batch.add(LocationPayload.toMap(fixes, i));
+            }
+            payload = batch;
+        }
+        recordSerialization(startTime, payload);
+        return payload;
+    }
+
+    private void recordSerialization(long startTime, Object payload) {
+        mStats.record(LocationStats.SERIALIZATION_TIME, (System.nanoTime() - startTime) / 1000);
+        mStats.record(LocationStats.PAYLOAD_SIZE, LocationPayload.encodedSize(payload));
     }
 
     /**
@@ -328,8 +1186,30 @@ public class LocationPlugin
      * These settings are appropriate for mapping applications that show real-time
      * location updates.
      */
-    private void createLocationRequest() {
-        mLocationRequest = LocationRequest.create();
+    private LocationRequest createLocationRequest() {
+        LocationRequest request = LocationRequest.create();
+
+        long interval = update_interval_in_milliseconds;
+        long fastestInterval = fastest_update_interval_in_milliseconds;
+        int priority = location_accuracy;
+        float displacement = distanceFilter;
+
+        // The strictest settings of the subscriptions, each of them is then only
+        // delivered the fixes it needs
+        if (mSubscriptions.size() > 0) {
+            interval = mSubscriptions.mergedInterval();
+            fastestInterval = interval / 2;
+            priority = mSubscriptions.mergedPriority();
+            displacement = (float) mSubscriptions.mergedDistance();
+        }
+
+        // While stationary, the updates are less frequent and less accurate
+        MotionStateDetector detector = mMotionStateDetector;
+        if (detector != null && detector.getState() == MotionStateDetector.STATE_STATIONARY) {
+            interval *= STATIONARY_INTERVAL_FACTOR;
+            fastestInterval *= STATIONARY_INTERVAL_FACTOR;
+            priority = Math.max(priority, LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+        }
 
         // Sets the desired interval for active location updates. This interval is
         // inexact. You may not receive updates at all if no location sources are
@@ -337,15 +1217,20 @@ public class LocationPlugin
         // you may receive them slower than requested. You may also receive updates
         // faster than
         // requested if other applications are requesting location at a faster interval.
-        mLocationRequest.setInterval(update_interval_in_milliseconds);
+        request.setInterval(interval);
 
         // Sets the fastest rate for active location updates. This interval is exact,
         // and your
         // application will never receive updates faster than this value.
-        mLocationRequest.setFastestInterval(fastest_update_interval_in_milliseconds);
+        request.setFastestInterval(fastestInterval);
+
+        request.setPriority(priority);
+        request.setSmallestDisplacement(displacement);
 
-        mLocationRequest.setPriority(location_accuracy);
-        mLocationRequest.setSmallestDisplacement(distanceFilter);
+        // Lets the provider hold fixes and deliver them together, so the device
+        // and the Flutter side are woken up less often.
+        request.setMaxWaitTime(max_wait_time_in_milliseconds);
+        return request;
     }
 
     /**
@@ -356,10 +1241,63 @@ public class LocationPlugin
      */
     private void buildLocationSettingsRequest() {
         LocationSettingsRequest.Builder builder = new LocationSettingsRequest.Builder();
-        builder.addLocationRequest(mLocationRequest);
+        builder.addLocationRequest(getLocationRequest());
         mLocationSettingsRequest = builder.build();
     }
 
+    private LocationRequest getLocationRequest() {
+        if (mLocationRequest == null) {
+            mLocationRequest = createLocationRequest();
+        }
+        return mLocationRequest;
+    }
+
+    private LocationSettingsRequest getLocationSettingsRequest() {
+        if (mLocationSettingsRequest == null) {
+            buildLocationSettingsRequest();
+        }
+        return mLocationSettingsRequest;
+    }
+
+    /**
+     * Rebuilds the request after a change of the settings, the subscriptions or
+     * the motion state. Only when its parameters changed is it replaced, and the
+     * location settings have to be checked again.
+     *
+     * @return whether the request changed.
+     */
+    private boolean updateLocationRequest() {
+        LocationRequest request = createLocationRequest();
+        LocationRequest previous = mLocationRequest;
+        if (previous != null && previous.getInterval() == request.getInterval()
+                && previous.getFastestInterval() == request.getFastestInterval()
+                && previous.getPriority() == request.getPriority()
+                && previous.getSmallestDisplacement() == request.getSmallestDisplacement()
+                && previous.getMaxWaitTime() == request.getMaxWaitTime()) {
+            return false;
+        }
+        mLocationRequest = request;
+        mLocationSettingsRequest = null;
+        mSettingsSatisfied = false;
+        return true;
+    }
+
+    private SettingsClient getSettingsClient() {
+        if (mSettingsClient == null) {
+            mSettingsClient = LocationServices.getSettingsClient(activity);
+        }
+        return mSettingsClient;
+    }
+
+    /**
+     * Forgets the settings check and the service state, when the providers
+     * change.
+     */
+    private void invalidateSettingsState() {
+        mSettingsSatisfied = false;
+        mServiceEnabled = null;
+    }
+
     /**
      * Return the current state of the permissions needed.
      */
@@ -379,17 +1317,20 @@ public class LocationPlugin
     }
 
     private boolean checkServiceEnabled(final MethodChannel.Result result) {
-        boolean gps_enabled = false;
-        boolean network_enabled = false;
-
-        try {
-            gps_enabled = this.locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
-            network_enabled = this.locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
-        } catch (Exception ex) {
-            result.error("SERVICE_STATUS_ERROR", "Location service status couldn't be determined", null);
-            return false;
+        if (mServiceEnabled == null) {
+            boolean gps_enabled = false;
+            boolean network_enabled = false;
+
+            try {
+                gps_enabled = this.locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+                network_enabled = this.locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+            } catch (Exception ex) {
+                result.error("SERVICE_STATUS_ERROR", "Location service status couldn't be determined", null);
+                return false;
+            }
+            mServiceEnabled = gps_enabled || network_enabled;
         }
-        if (gps_enabled || network_enabled) {
+        if (mServiceEnabled) {
             if (result != null) {
                 result.success(1);
             }
@@ -409,7 +1350,7 @@ public class LocationPlugin
             return;
         }
         this.result = result;
-        mSettingsClient.checkLocationSettings(mLocationSettingsRequest).addOnFailureListener(activity, e -> {
+        getSettingsClient().checkLocationSettings(getLocationSettingsRequest()).addOnFailureListener(activity, e -> {
             int statusCode = ((ApiException) e).getStatusCode();
             switch (statusCode) {
             case LocationSettingsStatusCodes.RESOLUTION_REQUIRED:
@@ -429,13 +1370,22 @@ public class LocationPlugin
     }
 
     private void startRequestingLocation() {
-        mSettingsClient.checkLocationSettings(mLocationSettingsRequest)
+        // Nothing changed since the settings were last satisfied, or no setting
+        // matters to a replayed trace
+        if (mSettingsSatisfied || !getLocationSource().isDevice()) {
+            mStats.increment(LocationStats.SETTINGS_CHECKS_SKIPPED);
+            requestLocationUpdates();
+            return;
+        }
+        mStats.increment(LocationStats.SETTINGS_CHECKS);
+        final long checkTime = SystemClock.elapsedRealtime();
+        getSettingsClient().checkLocationSettings(getLocationSettingsRequest())
                 .addOnSuccessListener(activity, locationSettingsResponse -> {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                        locationManager.addNmeaListener(mMessageListener);
-                    }
-                    mFusedLocationClient.requestLocationUpdates(mLocationRequest, mLocationCallback, Looper.myLooper());
+                    mStats.record(LocationStats.SETTINGS_CHECK_TIME, SystemClock.elapsedRealtime() - checkTime);
+                    mSettingsSatisfied = true;
+                    requestLocationUpdates();
                 }).addOnFailureListener(activity, e -> {
+                    mStats.record(LocationStats.SETTINGS_CHECK_TIME, SystemClock.elapsedRealtime() - checkTime);
                     int statusCode = ((ApiException) e).getStatusCode();
                     switch (statusCode) {
                     case LocationSettingsStatusCodes.RESOLUTION_REQUIRED:
@@ -452,10 +1402,125 @@ public class LocationPlugin
                         String errorMessage = "Location settings are inadequate, and cannot be "
                                 + "fixed here. Fix in Settings.";
                         Log.e(METHOD_CHANNEL_NAME, errorMessage);
+                        failPendingLocations("SERVICE_STATUS_DISABLED", errorMessage);
                     }
                 });
     }
 
+    private void requestLocationUpdates() {
+        LocationCallback callback = getLocationCallback();
+        OnNmeaMessageListener nmeaListener = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? mMessageListener : null;
+        Looper looper = getProcessingLooper();
+        getLocationSource().requestLocationUpdates(getLocationRequest(), callback, nmeaListener, looper);
+        if (nmeaListener != null) {
+            mNmeaLooper = looper;
+        }
+        mLocationUpdatesRequested = true;
+    }
+
+    /**
+     * Whether the stream, a one-shot request, the geofences, the track log or
+     * the cell stream need the location updates. The trip statistics only
+     * follow the updates the others keep running.
+     */
+    private boolean hasLocationConsumers() {
+        return (events != null && mSubscriptions.size() > 0) || !mPendingLocationResults.isEmpty()
+                || mGeofenceEngine.size() > 0 || mTrackLog != null || (cellEvents != null && mCellTracker != null);
+    }
+
+    /**
+     * Starts or releases the location updates after a change of the native
+     * consumers.
+     */
+    private void updateLocationConsumers() {
+        if (!hasLocationConsumers()) {
+            stopLocationUpdates();
+        } else if (!mLocationUpdatesRequested && activity != null && checkPermissions()) {
+            startRequestingLocation();
+        }
+    }
+
+    /**
+     * Removes the location and NMEA registrations once nothing needs them
+     * anymore.
+     */
+    private void releaseLocationUpdates() {
+        if (!hasLocationConsumers()) {
+            stopLocationUpdates();
+        }
+    }
+
+    private void stopLocationUpdates() {
+        if (!mLocationUpdatesRequested) {
+            return;
+        }
+        mLocationUpdatesRequested = false;
+        LocationSource source = mReplaySource != null ? mReplaySource : mDeviceSource;
+        if (source != null) {
+            source.removeLocationUpdates(mLocationCallback);
+        }
+    }
+
+    /**
+     * The trace being replayed, or the device, whose client is created on first
+     * use. Null when detached from the activity.
+     */
+    private LocationSource getLocationSource() {
+        if (mReplaySource != null) {
+            return mReplaySource;
+        }
+        if (mDeviceSource == null && activity != null) {
+            mFusedLocationClient = LocationServices.getFusedLocationProviderClient(activity);
+            mDeviceSource = new FusedLocationSource(mFusedLocationClient, locationManager);
+        }
+        return mDeviceSource;
+    }
+
+    /**
+     * Reads the trace on the processing thread, then replaces the current source
+     * with it, restarting the updates when they are running.
+     */
+    private void startReplay(final String path, final int format, final double speed, final boolean loop,
+            final MethodChannel.Result result) {
+        if (format < LocationTrace.FORMAT_GPX || format > LocationTrace.FORMAT_CSV) {
+            result.error("REPLAY_ERROR", "Unknown trace format: " + format, null);
+            return;
+        }
+        getProcessingHandler().post(() -> {
+            final LocationTrace trace;
+            try (Reader reader = new BufferedReader(new FileReader(path))) {
+                trace = LocationTrace.read(reader, format);
+            } catch (IOException | RuntimeException e) {
+                runOnMainThread(() -> result.error("REPLAY_ERROR", e.getMessage(), null));
+                return;
+            }
+            runOnMainThread(() -> {
+                replaceLocationSource(new ReplayLocationSource(trace, speed, loop));
+                result.success(1);
+            });
+        });
+    }
+
+    /**
+     * Stops the updates of the current source and starts them again from the
+     * new one when they were running. Must be called on the main thread.
+     */
+    private void replaceLocationSource(ReplayLocationSource replaySource) {
+        stopLocationUpdates();
+        mReplaySource = replaySource;
+        // The NMEA values of the previous source don't apply to the new one,
+        // reset after the sentences already queued on the looper of the
+        // listener, directly when it is this one or has quit
+        Looper nmeaLooper = mNmeaLooper;
+        if (nmeaLooper == null || nmeaLooper == Looper.myLooper()
+                || !new Handler(nmeaLooper).post(mNmeaParser::reset)) {
+            mNmeaParser.reset();
+        }
+        if (hasLocationConsumers() && activity != null && checkPermissions()) {
+            startRequestingLocation();
+        }
+    }
+
     @Override
     public void onListen(Object arguments, final EventChannel.EventSink eventsSink) {
         events = eventsSink;
@@ -467,17 +1532,24 @@ public class LocationPlugin
                         null);
             }
         }
-        startRequestingLocation();
+        // Otherwise, the updates start with the first subscription
+        if (mSubscriptions.size() > 0) {
+            startRequestingLocation();
+        }
     }
 
     @Override
     public void onCancel(Object arguments) {
-        mFusedLocationClient.removeLocationUpdates(mLocationCallback);
+        mainHandler.removeCallbacks(mDeliveryTask);
+        mDeliveryQueue.clear();
         events = null;
+        // Pending one-shot requests still need the updates
+        releaseLocationUpdates();
     }
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
+        applicationContext = binding.getApplicationContext();
         tearUpChannel(binding.getBinaryMessenger());
     }
 
@@ -0,0 +1,31 @@
+package com.lyokone.location;
+
+import android.location.OnNmeaMessageListener;
+import android.os.Looper;
+
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+
+/**
+ * Origin of the locations and NMEA sentences fed to the callbacks of the
+ * plugin: the device, or a recorded trace.
+ */
+interface LocationSource {
+
+    /**
+     * Whether the locations come from the device, whose location settings have
+     * to be checked before requesting them.
+     */
+    boolean isDevice();
+
+    /**
+     * Starts, or updates, the delivery of the locations to the callback and of
+     * the NMEA sentences to the listener, on the given looper.
+     *
+     * @param nmeaListener null before Android N.
+     */
+    void requestLocationUpdates(LocationRequest request, LocationCallback callback,
+            OnNmeaMessageListener nmeaListener, Looper looper);
+
+    void removeLocationUpdates(LocationCallback callback);
+}
@@ -0,0 +1,222 @@
+package com.lyokone.location;
+
+import android.location.Location;
+import android.location.OnNmeaMessageListener;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a recorded trace in place of the device, through the same callbacks.
+ * <p/>
+ * Records are replayed at their recorded pace, multiplied by the speed, or as
+ * fast as possible when the speed is 0. Times are shifted so that the trace
+ * starts when the replay does. The interval of the request is ignored, the
+ * trace setting the pace, but its max wait time batches the locations as the
+ * provider would. Stopping and requesting again resumes the trace where it
+ * stopped.
+ * <p/>
+ * The replay runs on the looper of the request while it is requested and
+ * stopped on the main thread. Each request gets its own replay, and a stopped
+ * one neither delivers nor posts its next step, even when it was running.
+ */
+final class ReplayLocationSource implements LocationSource {
+
+    private static final String PROVIDER = "replay";
+
+    // Records replayed per message when replaying as fast as possible, to let
+    // the looper handle the other messages
+    private static final int RECORDS_PER_STEP = 64;
+
+    // Interval between the end of the trace and its start, when looping
+    private static final long LOOP_INTERVAL = 1000;
+
+    private final LocationTrace trace;
+    private final double speed;
+    private final boolean loop;
+
+    // Replay of the current request, only used on the main thread
+    private Replay replay;
+
+    // Incremented when the updates stop, the steps of an older replay still
+    // running on their looper then neither deliver nor post anything
+    private volatile int generation;
+
+    // Next record and time shift of the trace, kept from a request to the next
+    // to resume where the replay stopped
+    private volatile int position;
+    private volatile double timeOffset;
+
+    /**
+     * Replay of the trace for one request. Its steps and its batch are confined
+     * to the looper of the request.
+     */
+    private final class Replay implements Runnable {
+
+        private final int replayGeneration;
+        private final Handler handler;
+        private final LocationCallback callback;
+        private final OnNmeaMessageListener nmeaListener;
+        private final long maxWaitTime;
+        private final List<Location> batch = new ArrayList<>();
+
+        // Clock of the replay
+        private long startUptime;
+        private double startTime;
+
+        Replay(Handler handler, LocationCallback callback, OnNmeaMessageListener nmeaListener, long maxWaitTime) {
+            this.replayGeneration = generation;
+            this.handler = handler;
+            this.callback = callback;
+            this.nmeaListener = nmeaListener;
+            this.maxWaitTime = maxWaitTime;
+        }
+
+        @Override
+        public void run() {
+            int replayed = 0;
+            while (isCurrent()) {
+                if (position == trace.size()) {
+                    flushBatch();
+                    if (!loop) {
+                        return;
+                    }
+                    timeOffset += trace.getTime(position - 1) - trace.getTime(0) + LOOP_INTERVAL;
+                    position = 0;
+                    startClock();
+                }
+                if (speed > 0) {
+                    long due = startUptime + (long) ((trace.getTime(position) - startTime) / speed);
+                    if (due > SystemClock.uptimeMillis()) {
+                        handler.postAtTime(this, due);
+                        return;
+                    }
+                } else if (++replayed > RECORDS_PER_STEP) {
+                    handler.post(this);
+                    return;
+                }
+                int record = position;
+                position = record + 1;
+                replay(record);
+            }
+        }
+
+        private boolean isCurrent() {
+            return replayGeneration == generation;
+        }
+
+        private void startClock() {
+            startUptime = SystemClock.uptimeMillis();
+            startTime = trace.getTime(position);
+        }
+
+        private void replay(int record) {
+            long time = (long) (trace.getTime(record) + timeOffset);
+            if (!trace.isFix(record)) {
+                if (nmeaListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    nmeaListener.onNmeaMessage(trace.getSentence(record), time);
+                }
+                return;
+            }
+            batch.add(toLocation(trace.getFixes(), trace.getFixOffset(record), time));
+            if (maxWaitTime <= 0 || batch.get(batch.size() - 1).getTime() - batch.get(0).getTime() >= maxWaitTime) {
+                flushBatch();
+            }
+        }
+
+        private void flushBatch() {
+            if (batch.isEmpty() || !isCurrent()) {
+                return;
+            }
+            LocationResult result = LocationResult.create(new ArrayList<>(batch));
+            batch.clear();
+            callback.onLocationResult(result);
+        }
+    }
+
+    /**
+     * @param speed multiplier of the recorded pace, as fast as possible when 0
+     *              or less.
+     */
+    ReplayLocationSource(LocationTrace trace, double speed, boolean loop) {
+        this.trace = trace;
+        this.speed = speed;
+        this.loop = loop;
+        this.timeOffset = System.currentTimeMillis() - trace.getTime(0);
+    }
+
+    @Override
+    public boolean isDevice() {
+        return false;
+    }
+
+    @Override
+    public void requestLocationUpdates(LocationRequest request, LocationCallback callback,
+            OnNmeaMessageListener nmeaListener, Looper looper) {
+        stop();
+        replay = new Replay(new Handler(looper), callback, nmeaListener, request.getMaxWaitTime());
+        if (position == trace.size() && !loop) {
+            // Nothing left to replay
+            return;
+        }
+        if (position == trace.size()) {
+            position = 0;
+        }
+        replay.startClock();
+        replay.handler.post(replay);
+    }
+
+    @Override
+    public void removeLocationUpdates(LocationCallback callback) {
+        if (replay != null && callback == replay.callback) {
+            stop();
+        }
+    }
+
+    private void stop() {
+        if (replay != null) {
+            generation++;
+            replay.handler.removeCallbacks(replay);
+            replay = null;
+        }
+    }
+
+    private static Location toLocation(double[] fixes, int offset, long time) {
+        Location location = new Location(PROVIDER);
+        location.setLatitude(fixes[offset + LocationPayload.LATITUDE]);
+        location.setLongitude(fixes[offset + LocationPayload.LONGITUDE]);
+        location.setTime(time);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
+        }
+        double value = fixes[offset + LocationPayload.ACCURACY];
+        if (!Double.isNaN(value)) {
+            location.setAccuracy((float) value);
+        }
+        value = fixes[offset + LocationPayload.ALTITUDE];
+        if (!Double.isNaN(value)) {
+            location.setAltitude(value);
+        }
+        value = fixes[offset + LocationPayload.SPEED];
+        if (!Double.isNaN(value)) {
+            location.setSpeed((float) value);
+        }
+        value = fixes[offset + LocationPayload.HEADING];
+        if (!Double.isNaN(value)) {
+            location.setBearing((float) value);
+        }
+        value = fixes[offset + LocationPayload.SPEED_ACCURACY];
+        if (!Double.isNaN(value) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            location.setSpeedAccuracyMetersPerSecond((float) value);
+        }
+        return location;
+    }
+}
@@ -1,10 +1,15 @@
 import 'dart:async';
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 
 /// A data class that contains various information about the user's location.
 ///
 /// speedAccuracy cannot be provided on iOS and thus is always 0.
+/// speed and heading are null on Android when the location doesn't report
+/// them.
+/// satellites, hdop and vdop come from the NMEA sentences of the GNSS chip and
+/// are only provided on Android 7.0 and above, null otherwise.
 class LocationData {
   final double latitude;
   final double longitude;
@@ -14,9 +19,13 @@ class LocationData {
   final double speedAccuracy;
   final double heading;
   final double time;
+  final double satellites;
+  final double hdop;
+  final double vdop;
 
   LocationData._(this.latitude, this.longitude, this.accuracy, this.altitude,
-      this.speed, this.speedAccuracy, this.heading, this.time);
+      this.speed, this.speedAccuracy, this.heading, this.time,
+      [this.satellites, this.hdop, this.vdop]);
 
   factory LocationData.fromMap(Map<String, double> dataMap) {
     return LocationData._(
@@ -28,38 +37,565 @@ class LocationData {
       dataMap['speed_accuracy'],
       dataMap['heading'],
       dataMap['time'],
+      dataMap['satellites'],
+      dataMap['hdop'],
+      dataMap['vdop'],
+    );
+  }
+
+  /// Number of values describing a location in a packed payload.
+  static const int _packedStride = 11;
+
+  /// Decodes the location stored at [index] of a packed payload, where
+  /// missing values are NaN.
+  factory LocationData.fromPacked(Float64List fixes, int index) {
+    final int offset = index * _packedStride;
+    return LocationData._(
+      fixes[offset],
+      fixes[offset + 1],
+      fixes[offset + 2],
+      fixes[offset + 3],
+      _knownOrNull(fixes[offset + 4]),
+      _knownOrNull(fixes[offset + 5]),
+      _knownOrNull(fixes[offset + 6]),
+      fixes[offset + 7],
+      _knownOrNull(fixes[offset + 8]),
+      _knownOrNull(fixes[offset + 9]),
+      _knownOrNull(fixes[offset + 10]),
+    );
+  }
+
+  static double _knownOrNull(double value) => value.isNaN ? null : value;
+
+  /// Decodes a packed history, which only contains the latitude, longitude,
+  /// accuracy and time of each location.
+  static List<LocationData> listFromPackedHistory(Float64List history) {
+    return List<LocationData>.generate(
+        history.length ~/ 4,
+        (index) => LocationData._(history[index * 4], history[index * 4 + 1],
+            history[index * 4 + 2], null, null, null, null,
+            history[index * 4 + 3]));
+  }
+
+  /// Decodes a payload of the delta format, where the coordinates, altitude
+  /// and time are encoded as zigzag varints relative to the previous location,
+  /// and the unknown optional values as 0.
+  static List<LocationData> listFromDelta(Uint8List bytes) {
+    int position = 0;
+    int readVarint() {
+      int value = 0;
+      int shift = 0;
+      int byte;
+      do {
+        byte = bytes[position++];
+        value |= (byte & 0x7f) << shift;
+        shift += 7;
+      } while (byte & 0x80 != 0);
+      return value;
+    }
+
+    int readSigned() {
+      final int value = readVarint();
+      return (value >> 1) ^ -(value & 1);
+    }
+
+    // Optional values are written plus one, 0 when unknown
+    double readOptional(double scale) {
+      final int value = readVarint();
+      if (value == 0) {
+        return null;
+      }
+      return (((value - 1) >> 1) ^ -((value - 1) & 1)) / scale;
+    }
+
+    final int count = readVarint();
+    final List<LocationData> locations = List<LocationData>(count);
+    int latitude = 0;
+    int longitude = 0;
+    int time = 0;
+    int altitude = 0;
+    for (int i = 0; i < count; i++) {
+      latitude += readSigned();
+      longitude += readSigned();
+      time += readSigned();
+      altitude += readSigned();
+      final double accuracy = readSigned() / 100;
+      final double speed = readOptional(100);
+      final double heading = readOptional(100);
+      locations[i] = LocationData._(latitude / 1e7, longitude / 1e7, accuracy,
+          altitude / 100, speed, null, heading, time.toDouble());
+    }
+    return locations;
+  }
+
+  /// Decodes every location of a packed payload.
+  static List<LocationData> listFromPacked(Float64List fixes) {
+    return List<LocationData>.generate(fixes.length ~/ _packedStride,
+        (index) => LocationData.fromPacked(fixes, index));
+  }
+}
+
+/// Transition of the device relative to a geofence.
+///
+/// [DWELL] is sent once the device stayed inside the geofence for its dwell
+/// time.
+enum GeofenceTransition { ENTER, EXIT, DWELL }
+
+/// A circular or polygonal area whose transitions are reported by
+/// [Location.onGeofenceEvent].
+class Geofence {
+  final String id;
+  final double latitude;
+  final double longitude;
+  final double radius;
+
+  /// Latitude and longitude of each vertex, interleaved.
+  final List<double> polygon;
+
+  /// Time in milliseconds after which a [GeofenceTransition.DWELL] is sent, no
+  /// dwell transition when 0.
+  final int dwellTime;
+
+  /// A circle of [radius] meters.
+  Geofence.circle(this.id, this.latitude, this.longitude, this.radius,
+      {this.dwellTime = 0})
+      : polygon = null;
+
+  /// A polygon, whose [vertices] are given as latitude and longitude pairs.
+  Geofence.polygon(this.id, List<double> vertices, {this.dwellTime = 0})
+      : latitude = null,
+        longitude = null,
+        radius = null,
+        polygon = vertices;
+
+  Map<String, dynamic> toMap() {
+    if (polygon != null) {
+      return {"id": id, "polygon": polygon, "dwellTime": dwellTime};
+    }
+    return {
+      "id": id,
+      "latitude": latitude,
+      "longitude": longitude,
+      "radius": radius,
+      "dwellTime": dwellTime
+    };
+  }
+}
+
+/// A transition of the device relative to a geofence, with the position and
+/// time of the location that triggered it.
+class GeofenceEvent {
+  final String id;
+  final GeofenceTransition transition;
+  final double latitude;
+  final double longitude;
+  final double time;
+
+  GeofenceEvent._(
+      this.id, this.transition, this.latitude, this.longitude, this.time);
+
+  factory GeofenceEvent.fromMap(Map<dynamic, dynamic> dataMap) {
+    return GeofenceEvent._(
+      dataMap['id'],
+      GeofenceTransition.values[dataMap['transition']],
+      dataMap['latitude'],
+      dataMap['longitude'],
+      dataMap['time'],
+    );
+  }
+}
+
+/// Move of the device into another geohash cell, see [Location.onCellChanged].
+///
+/// [previous] is null for the first cell. [neighbors] are the cells around
+/// [cell], clockwise from the north one.
+class CellEvent {
+  final String cell;
+  final String previous;
+  final List<String> neighbors;
+  final double latitude;
+  final double longitude;
+  final double time;
+
+  CellEvent._(this.cell, this.previous, this.neighbors, this.latitude,
+      this.longitude, this.time);
+
+  factory CellEvent.fromMap(Map<dynamic, dynamic> dataMap) {
+    return CellEvent._(
+      dataMap['cell'],
+      dataMap['previous'],
+      dataMap['neighbors'].cast<String>(),
+      dataMap['latitude'],
+      dataMap['longitude'],
+      dataMap['time'],
+    );
+  }
+}
+
+/// Summary of the values recorded by a histogram of [LocationStats].
+///
+/// Percentiles are approximate, rounded up to the next power of two.
+class LocationStatsHistogram {
+  final int count;
+  final double mean;
+  final int max;
+  final int p50;
+  final int p90;
+  final int p99;
+
+  LocationStatsHistogram._(
+      this.count, this.mean, this.max, this.p50, this.p90, this.p99);
+
+  factory LocationStatsHistogram.fromMap(Map<dynamic, dynamic> dataMap) {
+    return LocationStatsHistogram._(
+      dataMap['count'],
+      dataMap['mean'],
+      dataMap['max'],
+      dataMap['p50'],
+      dataMap['p90'],
+      dataMap['p99'],
     );
   }
 }
 
+/// Runtime counters and histograms of the plugin, since the last reset.
+///
+/// [elapsed] is in milliseconds. The histograms are `fixAge` and
+/// `settingsCheckTime` in milliseconds, `processingTime` and
+/// `serializationTime` in microseconds and `payloadSize` in bytes.
+class LocationStats {
+  final int elapsed;
+  final Map<String, int> counters;
+  final Map<String, LocationStatsHistogram> histograms;
+  final double nmeaSentencesPerSecond;
+
+  LocationStats._(this.elapsed, this.counters, this.histograms,
+      this.nmeaSentencesPerSecond);
+
+  factory LocationStats.fromMap(Map<dynamic, dynamic> dataMap) {
+    return LocationStats._(
+      dataMap['elapsed'],
+      dataMap['counters'].cast<String, int>(),
+      dataMap['histograms'].map<String, LocationStatsHistogram>(
+          (name, histogram) => MapEntry<String, LocationStatsHistogram>(
+              name, LocationStatsHistogram.fromMap(histogram))),
+      dataMap['nmeaSentencesPerSecond'],
+    );
+  }
+}
+
+/// Odometer and speed statistics of the trip, since the last reset.
+///
+/// Times are in milliseconds, [distance] in meters and speeds in m/s.
+/// Inaccurate fixes are counted in [rejectedCount] and ignored.
+class TripStats {
+  final double startTime;
+  final double endTime;
+  final double distance;
+  final double movingTime;
+  final double stoppedTime;
+  final double maxSpeed;
+  final double averageSpeed;
+  final double averageMovingSpeed;
+  final int fixCount;
+  final int rejectedCount;
+
+  TripStats._(
+      this.startTime,
+      this.endTime,
+      this.distance,
+      this.movingTime,
+      this.stoppedTime,
+      this.maxSpeed,
+      this.averageSpeed,
+      this.averageMovingSpeed,
+      this.fixCount,
+      this.rejectedCount);
+
+  factory TripStats.fromMap(Map<dynamic, dynamic> dataMap) {
+    return TripStats._(
+      dataMap['startTime'],
+      dataMap['endTime'],
+      dataMap['distance'],
+      dataMap['movingTime'],
+      dataMap['stoppedTime'],
+      dataMap['maxSpeed'],
+      dataMap['averageSpeed'],
+      dataMap['averageMovingSpeed'],
+      dataMap['fixCount'],
+      dataMap['rejectedCount'],
+    );
+  }
+
+  /// Moving time per kilometer in seconds, 0 until the device moved.
+  double get pace => distance > 0 ? movingTime / distance : 0;
+}
+
 /// https://developers.google.com/android/reference/com/google/android/gms/location/LocationRequest
 /// https://developer.apple.com/documentation/corelocation/cllocationaccuracy?language=objc
 /// Precision of the Location
 enum LocationAccuracy { POWERSAVE, LOW, BALANCED, HIGH, NAVIGATION }
 
+/// Encoding of the locations sent by the platform.
+///
+/// [PACKED] sends a fixed layout of doubles instead of a map for each
+/// location, which is cheaper to build and decode. [DELTA] sends the
+/// locations as compact integer deltas, without the speed accuracy and NMEA
+/// values (only affects Android).
+enum LocationPayloadFormat { MAP, PACKED, DELTA }
+
+/// Pacing of the locations sent by the platform, when they arrive faster than
+/// the app processes them.
+///
+/// [ALL] sends every location, [LATEST] only the most recent one waiting and
+/// [DROP_OLDEST] the most recent ones up to a capacity. [DEMAND] sends a
+/// location only once the previous one has been received, keeping the most
+/// recent ones up to a capacity (only affects Android).
+enum LocationDeliveryPolicy { ALL, LATEST, DROP_OLDEST, DEMAND }
+
+/// Format of a recorded trace: a GPX file, NMEA sentences, or a CSV file whose
+/// header names the columns after the keys of [LocationData].
+enum LocationTraceFormat { GPX, NMEA, CSV }
+
 class Location {
   static const MethodChannel _channel = const MethodChannel('lyokone/location');
   static const EventChannel _stream =
       const EventChannel('lyokone/locationstream');
+  static const EventChannel _trackStream =
+      const EventChannel('lyokone/locationtrack');
+  static const EventChannel _geofenceStream =
+      const EventChannel('lyokone/geofencestream');
+  static const EventChannel _statsStream =
+      const EventChannel('lyokone/locationstats');
+  static const EventChannel _cellStream =
+      const EventChannel('lyokone/cellstream');
 
+  Stream<dynamic> _events;
+  Stream<List<LocationData>> _legacyEvents;
   Stream<LocationData> _onLocationChanged;
+  Stream<List<LocationData>> _onLocationBatchChanged;
+  int _nextSubscriptionId = 1;
+  LocationDeliveryPolicy _deliveryPolicy = LocationDeliveryPolicy.ALL;
+  Stream<GeofenceEvent> _onGeofenceEvent;
+  Stream<CellEvent> _onCellChanged;
 
+  /// Changes the settings of the future requests.
+  ///
+  /// When [maxWaitTime] (in milliseconds) is greater than [interval], Android
+  /// delivers the locations in batches of at most [batchSize] fixes (no limit
+  /// when 0), see [onLocationBatchChanged].
+  ///
+  /// With [backgroundProcessing], Android receives and processes the locations
+  /// on a dedicated thread of the given [threadPriority] (a
+  /// `android.os.Process` priority), only the delivery is done on the main
+  /// thread.
+  ///
+  /// Android keeps the last [historySize] locations, see [getHistory]. With
+  /// [trackLog], every location is also written to a durable track on disk,
+  /// see [replayTrack], and the location updates keep running while it is
+  /// enabled.
+  ///
+  /// When [simplifyTolerance] is greater than 0, Android drops the locations
+  /// within [simplifyTolerance] meters of the position extrapolated from the
+  /// previous ones, before they are kept or sent.
+  ///
+  /// With [kalmanFilter], Android smooths the locations with a Kalman filter
+  /// and drops the ones further than [outlierGate] standard deviations from
+  /// the prediction, or less accurate than [maxAccuracy] meters (no limit
+  /// when 0).
+  ///
+  /// With [adaptive], Android detects whether the device is stationary,
+  /// walking or driving and, while stationary, requests the locations less
+  /// often and with a lower accuracy.
+  ///
+  /// Android sends the locations according to [deliveryPolicy], keeping at
+  /// most [deliveryCapacity] of them waiting with the bounded policies, and at
+  /// least [minEmitInterval] milliseconds apart.
+  ///
+  /// When [cellPrecision] is greater than 0, Android tracks the geohash cell
+  /// of [cellPrecision] characters of the device and reports its changes to
+  /// [onCellChanged], without affecting the other streams.
   Future<bool> changeSettings(
-          {LocationAccuracy accuracy = LocationAccuracy.HIGH,
-          int interval = 1000,
-          double distanceFilter = 0}) =>
-      _channel.invokeMethod('changeSettings', {
-        "accuracy": accuracy.index,
-        "interval": interval,
-        "distanceFilter": distanceFilter
-      }).then((result) => result == 1);
+      {LocationAccuracy accuracy = LocationAccuracy.HIGH,
+      int interval = 1000,
+      double distanceFilter = 0,
+      int maxWaitTime = 0,
+      int batchSize = 0,
+      LocationPayloadFormat payloadFormat = LocationPayloadFormat.MAP,
+      bool backgroundProcessing = false,
+      int threadPriority = 10,
+      int historySize = 256,
+      bool trackLog = false,
+      double simplifyTolerance = 0,
+      bool kalmanFilter = false,
+      double outlierGate = 4,
+      double maxAccuracy = 0,
+      bool adaptive = false,
+      LocationDeliveryPolicy deliveryPolicy = LocationDeliveryPolicy.ALL,
+      int deliveryCapacity = 16,
+      int minEmitInterval = 0,
+      int cellPrecision = 0}) {
+    _deliveryPolicy = deliveryPolicy;
+    return _channel.invokeMethod('changeSettings', {
+      "accuracy": accuracy.index,
+      "interval": interval,
+      "distanceFilter": distanceFilter,
+      "maxWaitTime": maxWaitTime,
+      "batchSize": batchSize,
+      "payloadFormat": payloadFormat.index,
+      "backgroundProcessing": backgroundProcessing,
+      "threadPriority": threadPriority,
+      "historySize": historySize,
+      "trackLog": trackLog,
+      "simplifyTolerance": simplifyTolerance,
+      "kalmanFilter": kalmanFilter,
+      "outlierGate": outlierGate,
+      "maxAccuracy": maxAccuracy,
+      "adaptive": adaptive,
+      "deliveryPolicy": deliveryPolicy.index,
+      "deliveryCapacity": deliveryCapacity,
+      "minEmitInterval": minEmitInterval,
+      "cellPrecision": cellPrecision
+    }).then((result) => result == 1);
+  }
 
   /// Gets the current location of the user.
   ///
+  /// When [maxAge] (in milliseconds) is greater than 0, the last location
+  /// received by the platform, or else the last known one, is returned right
+  /// away if it is at most [maxAge] old and, when [minAccuracy] is greater than
+  /// 0, at least [minAccuracy] meters accurate. Otherwise, concurrent calls
+  /// share a single request of the next location, whatever its accuracy
+  /// ([maxAge] and [minAccuracy] only affect Android).
+  ///
   /// Throws an error if the app has no permission to access location.
-  Future<LocationData> getLocation() => _channel
-      .invokeMethod('getLocation')
-      .then((result) => LocationData.fromMap(result.cast<String, double>()));
+  Future<LocationData> getLocation({int maxAge = 0, double minAccuracy = 0}) =>
+      _channel.invokeMethod('getLocation', {
+        "maxAge": maxAge,
+        "minAccuracy": minAccuracy
+      }).then((result) => _decodeEvent(result).last);
+
+  /// Gets the recent locations kept by the platform, newer than [sinceTime]
+  /// (a timestamp in milliseconds), in chronological order.
+  ///
+  /// At most the [maxCount] most recent locations are returned, no limit when
+  /// 0. Only the latitude, longitude, accuracy and time of the locations are
+  /// kept (only available on Android).
+  Future<List<LocationData>> getHistory(
+          {double sinceTime = 0, int maxCount = 0}) =>
+      _channel.invokeMethod('getHistory', {
+        "sinceTime": sinceTime,
+        "maxCount": maxCount
+      }).then((result) => LocationData.listFromPackedHistory(result));
+
+  /// Reads the durable track, newer than [sinceTime] (a timestamp in
+  /// milliseconds), in pages of at most [pageSize] locations.
+  ///
+  /// The stream is closed once the whole track has been read (only available
+  /// on Android).
+  Stream<List<LocationData>> replayTrack(
+          {double sinceTime = 0, int pageSize = 500}) =>
+      _trackStream.receiveBroadcastStream({
+        "sinceTime": sinceTime,
+        "pageSize": pageSize
+      }).map<List<LocationData>>(
+          (page) => LocationData.listFromPacked(page));
+
+  /// Removes every location of the durable track (only available on Android).
+  Future<bool> clearTrack() =>
+      _channel.invokeMethod('clearTrack').then((result) => result == 1);
+
+  /// Adds geofences, evaluated by the platform for every location received.
+  /// The location updates keep running while there are geofences, with the
+  /// settings of [changeSettings] when no stream is listened. A geofence
+  /// replaces the one with the same id (only available on Android).
+  Future<bool> addGeofences(List<Geofence> geofences) => _channel
+      .invokeMethod('addGeofences', {
+        "geofences": geofences.map((geofence) => geofence.toMap()).toList()
+      }).then((result) => result == 1);
+
+  /// Removes the geofences with the given ids (only available on Android).
+  Future<bool> removeGeofences(List<String> ids) => _channel
+      .invokeMethod('removeGeofences', {"ids": ids})
+      .then((result) => result == 1);
+
+  /// Removes every geofence (only available on Android).
+  Future<bool> clearGeofences() =>
+      _channel.invokeMethod('clearGeofences').then((result) => result == 1);
+
+  /// Returns a stream of the geofence transitions.
+  Stream<GeofenceEvent> onGeofenceEvent() {
+    if (_onGeofenceEvent == null) {
+      _onGeofenceEvent = _geofenceStream
+          .receiveBroadcastStream()
+          .map<GeofenceEvent>((element) => GeofenceEvent.fromMap(element));
+    }
+    return _onGeofenceEvent;
+  }
+
+  /// Returns a stream of the geohash cells entered by the device, when a
+  /// [changeSettings] cell precision is set. Listening to it keeps the
+  /// location updates running, with the settings of [changeSettings] when no
+  /// location stream is listened (only available on Android).
+  Stream<CellEvent> onCellChanged() {
+    if (_onCellChanged == null) {
+      _onCellChanged = _cellStream
+          .receiveBroadcastStream()
+          .map<CellEvent>((element) => CellEvent.fromMap(element));
+    }
+    return _onCellChanged;
+  }
+
+  /// Gets the runtime counters and histograms of the plugin (only available
+  /// on Android).
+  Future<LocationStats> getStats() => _channel
+      .invokeMethod('getStats')
+      .then((result) => LocationStats.fromMap(result));
+
+  /// Resets the runtime counters and histograms (only available on Android).
+  Future<bool> resetStats() =>
+      _channel.invokeMethod('resetStats').then((result) => result == 1);
+
+  /// Returns a stream of the runtime stats, sent every [interval]
+  /// milliseconds (only available on Android).
+  Stream<LocationStats> onStats({int interval = 10000}) => _statsStream
+      .receiveBroadcastStream({"interval": interval}).map<LocationStats>(
+          (element) => LocationStats.fromMap(element));
+
+  /// Gets the distance, moving and stopped time and speeds of the trip,
+  /// accumulated by the platform from every location received while a
+  /// location stream or request, geofences or the track log keep the updates
+  /// running. To keep the trip accurate while the stream is slow, pace it with
+  /// [LocationDeliveryPolicy.LATEST] and a `minEmitInterval` rather than a long
+  /// `interval`: the platform still receives every location (only available
+  /// on Android).
+  Future<TripStats> getTripStats() => _channel
+      .invokeMethod('getTripStats')
+      .then((result) => TripStats.fromMap(result));
+
+  /// Starts a new trip (only available on Android).
+  Future<bool> resetTrip() =>
+      _channel.invokeMethod('resetTrip').then((result) => result == 1);
+
+  /// Replays the trace at [path] in place of the device location, through
+  /// the same streams and requests. The trace is replayed at its recorded pace
+  /// multiplied by [speed], or as fast as possible when [speed] is 0, and
+  /// starts over when [loop] is true (only available on Android).
+  Future<bool> startReplay(String path,
+          {LocationTraceFormat format = LocationTraceFormat.GPX,
+          double speed = 1,
+          bool loop = false}) =>
+      _channel.invokeMethod('startReplay', {
+        "path": path,
+        "format": format.index,
+        "speed": speed,
+        "loop": loop
+      }).then((result) => result == 1);
+
+  /// Stops the replay of a trace and goes back to the device location (only
+  /// available on Android).
+  Future<bool> stopReplay() =>
+      _channel.invokeMethod('stopReplay').then((result) => result == 1);
 
   /// Checks if the app has permission to access location.
   Future<bool> hasPermission() =>
@@ -80,9 +616,124 @@ class Location {
   /// Returns a stream of location information.
   Stream<LocationData> onLocationChanged() {
     if (_onLocationChanged == null) {
-      _onLocationChanged = _stream.receiveBroadcastStream().map<LocationData>(
-          (element) => LocationData.fromMap(element.cast<String, double>()));
+      _onLocationChanged = _receiveLegacyEvents()
+          .expand<LocationData>((locations) => locations);
     }
     return _onLocationChanged;
   }
+
+  /// Returns a stream of the batches of locations delivered together.
+  ///
+  /// Without batching, every batch contains a single location.
+  Stream<List<LocationData>> onLocationBatchChanged() {
+    if (_onLocationBatchChanged == null) {
+      _onLocationBatchChanged = _receiveLegacyEvents();
+    }
+    return _onLocationBatchChanged;
+  }
+
+  /// Returns a stream of locations with its own settings.
+  ///
+  /// Every stream shares the same platform request, made with the most
+  /// accurate and frequent settings of the streams listened to. Each stream
+  /// then only receives the locations at least [interval] milliseconds and
+  /// [distanceFilter] meters apart (only affects Android, other platforms
+  /// use the [changeSettings] values).
+  Stream<LocationData> subscribe(
+      {LocationAccuracy accuracy = LocationAccuracy.HIGH,
+      int interval = 1000,
+      double distanceFilter = 0}) {
+    return _subscribe(_nextSubscriptionId++, {
+      "accuracy": accuracy.index,
+      "interval": interval,
+      "distanceFilter": distanceFilter
+    }).expand<LocationData>((locations) => locations);
+  }
+
+  Stream<List<LocationData>> _receiveLegacyEvents() {
+    if (_legacyEvents == null) {
+      // Follows the changeSettings values
+      _legacyEvents = _subscribe(0, {"legacy": true});
+    }
+    return _legacyEvents;
+  }
+
+  Stream<List<LocationData>> _subscribe(
+      int id, Map<String, dynamic> settings) {
+    StreamSubscription<dynamic> events;
+    StreamController<List<LocationData>> controller;
+    controller = StreamController<List<LocationData>>.broadcast(onListen: () {
+      events = _receiveEvents().listen((element) {
+        final List<LocationData> locations = _decodeTargetedEvent(element, id);
+        if (locations != null) {
+          controller.add(locations);
+        }
+      }, onError: controller.addError);
+      settings["id"] = id;
+      _invokeSubscription('addSubscription', settings);
+    }, onCancel: () {
+      events.cancel();
+      _invokeSubscription('removeSubscription', {"id": id});
+    });
+    return controller.stream;
+  }
+
+  static void _invokeSubscription(
+      String method, Map<String, dynamic> arguments) {
+    // Platforms without subscriptions stream every location to every listener
+    _channel.invokeMethod(method, arguments).catchError((_) {},
+        test: (error) => error is MissingPluginException);
+  }
+
+  Stream<dynamic> _receiveEvents() {
+    if (_events == null) {
+      // A single listener of the platform stream, acknowledging each event
+      // once dispatched when the platform waits for it
+      StreamSubscription<dynamic> events;
+      StreamController<dynamic> controller;
+      controller = StreamController<dynamic>.broadcast(
+          sync: true,
+          onListen: () {
+            events = _stream.receiveBroadcastStream().listen((element) {
+              controller.add(element);
+              if (_deliveryPolicy == LocationDeliveryPolicy.DEMAND) {
+                _channel.invokeMethod('acknowledgeLocations');
+              }
+            }, onError: controller.addError);
+          },
+          onCancel: () => events.cancel());
+      _events = controller.stream;
+    }
+    return _events;
+  }
+
+  /// Decodes an event, or returns null when it is meant for other
+  /// subscriptions than [id].
+  static List<LocationData> _decodeTargetedEvent(dynamic element, int id) {
+    if (element is Map && element.containsKey("targets")) {
+      if (!element["targets"].contains(id)) {
+        return null;
+      }
+      return _decodeEvent(element["payload"]);
+    }
+    return _decodeEvent(element);
+  }
+
+  static List<LocationData> _decodeEvent(dynamic element) {
+    if (element is Float64List) {
+      return LocationData.listFromPacked(element);
+    }
+    if (element is Uint8List) {
+      return LocationData.listFromDelta(element);
+    }
+    if (element is List) {
+      return element
+          .map<LocationData>(
+              (item) => LocationData.fromMap(item.cast<String, double>()))
+          .toList();
+    }
+    return <LocationData>[
+      LocationData.fromMap(element.cast<String, double>())
+    ];
+  }
 }